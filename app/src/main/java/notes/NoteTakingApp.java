@@ -0,0 +1,8513 @@
+package notes;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.*;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Console-based Note Taking Application
+ * Demonstrates: Arrays, Methods, Exception Handling, File Handling, Enums, Regular Expressions
+ * 
+ * @author Karl Bondoc, Sean Rhed Gaquit, Jhon Brenzo Libatique, Karl Rarang Akashi
+ * @version 1.0
+ */
+public class NoteTakingApp {
+    // Store holding all notes, keyed by stable note ID
+    private static NoteStore store = new NoteStore();
+    
+    private static Scanner scanner = new Scanner(System.in);
+    private static final String DATA_FILE = "notes_data.txt";
+    private static final String JOURNAL_FILE = "notes_data.log";
+    private static final String HISTORY_FILE = "notes_data.hist";
+    private static final String SEGMENT_DIR = "notes_data.seg";
+    
+    // Snapshot, journal and edit history files behind the store
+    private static NoteDatabase database = new NoteDatabase(store, Paths.get(DATA_FILE), Paths.get(JOURNAL_FILE),
+            Paths.get(HISTORY_FILE));
+    
+    // Memory-map DATA_FILE and decode note content only when needed (--lazy)
+    private static boolean lazyLoad = false;
+    
+    // Where load and save status messages go; stderr in batch mode so stdout stays clean
+    private static PrintStream messages = System.out;
+    
+    // Notes shown per page when browsing
+    private static final int PAGE_SIZE = 20;
+    
+    // Titles suggested when picking a note by typing part of its title
+    private static final int TITLE_MATCHES = 10;
+    private static final DateTimeFormatter DISPLAY_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    
+    // Formats note lists a page at a time (see NoteListRenderer)
+    private static final NoteListRenderer listRenderer = new NoteListRenderer(System.out);
+    
+    // Loads the notes behind the menu with --fast-start; null once they are in or without it
+    private static StartupLoader startupLoader = null;
+    
+    /**
+     * Clear the console screen
+     * Works on Windows, Linux, and Mac
+     */
+    private static void clearScreen() {
+        try {
+            final String os = System.getProperty("os.name");
+            
+            if (os.contains("Windows")) {
+                // For Windows
+                new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
+            } else {
+                // For Linux and Mac
+                System.out.print("\033[H\033[2J");
+                System.out.flush();
+            }
+        } catch (Exception e) {
+            // If clearing fails, just print blank lines
+            for (int i = 0; i < 50; i++) {
+                System.out.println();
+            }
+        }
+    }
+    
+    /**
+     * Pause and wait for user to press Enter
+     */
+    private static void pauseScreen() {
+        System.out.print("\nPress Enter to continue...");
+        try {
+            System.in.read();
+            scanner.nextLine(); // Clear buffer
+        } catch (Exception e) {
+            // Ignore
+        }
+    }
+    
+    /**
+     * Enum for Note Categories
+     * Enumerations
+     */
+    enum NoteCategory {
+        PERSONAL("Personal"),
+        WORK("Work"),
+        SCHOOL("School"),
+        IDEAS("Ideas"),
+        REMINDERS("Reminders");
+        
+        private final String displayName;
+        
+        NoteCategory(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+    
+    /**
+     * Inner class to represent a Note
+     */
+    static class Note {
+        // Date format of the text file format; formatters are immutable and thread-safe
+        static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        
+        private int id;
+        private int slot = -1;
+        private NoteStore store;
+        private String title;
+        // Volatile so a server thread reading a note never sees neither field set mid-edit;
+        // a String, or a PieceTable once large content is edited in place
+        private volatile CharSequence content;
+        private volatile MappedText mappedContent; // Set instead of content when lazily loaded
+        private NoteCategory category;
+        private LocalDateTime createdDate;
+        private LocalDateTime modifiedDate;
+        
+        public Note(String title, CharSequence content, NoteCategory category) {
+            this.title = title;
+            this.content = content;
+            this.category = category;
+            this.createdDate = LocalDateTime.now();
+            this.modifiedDate = LocalDateTime.now();
+        }
+        
+        // Getters and setters
+        public int getId() { return id; }
+        
+        /**
+         * The columns holding this note's fields, or null if the note holds them itself
+         */
+        private NoteColumns columns() {
+            NoteStore owner = store;
+            return owner != null ? owner.columns : null;
+        }
+        
+        public String getTitle() {
+            NoteColumns columns = columns();
+            return columns != null ? columns.title(slot) : title;
+        }
+        public void setTitle(String title) { 
+            long start = Metrics.start();
+            String oldTitle = getTitle();
+            LocalDateTime oldModified = getModifiedDate();
+            putTitle(title);
+            putModifiedDate(LocalDateTime.now());
+            if (store != null) store.fireUpdated(this, oldTitle, getContent(), getCategory(), oldModified);
+            Metrics.record(Metrics.Operation.EDIT, start);
+        }
+        
+        /**
+         * Get the content, decoding it from the mapped data file if it was loaded lazily
+         * Lazily loaded content is decoded on every call and not kept on the heap.
+         */
+        public String getContent() {
+            CharSequence text = contentText();
+            return text != null ? text.toString() : null;
+        }
+        
+        /**
+         * Get the content as stored, without turning a PieceTable into a String
+         */
+        public CharSequence contentText() {
+            // setContent() clears mappedContent after setting content, so check it first
+            MappedText mapped = mappedContent;
+            if (mapped != null) {
+                return mapped.decode();
+            }
+            NoteColumns columns = columns();
+            return columns != null ? columns.content(slot) : content;
+        }
+        
+        public void setContent(CharSequence content) { 
+            long start = Metrics.start();
+            String oldContent = getContent();
+            LocalDateTime oldModified = getModifiedDate();
+            MappedText oldMapped = mappedContent;
+            putContent(content);
+            putModifiedDate(LocalDateTime.now());
+            fireUnmapped(oldMapped, oldContent);
+            if (store != null) store.fireUpdated(this, getTitle(), oldContent, getCategory(), oldModified);
+            Metrics.record(Metrics.Operation.EDIT, start);
+        }
+        
+        /**
+         * Insert text into the content at an offset
+         * Large content is edited as a PieceTable, so the rest of the content is
+         * not copied, and listeners are told only the offset and the inserted text.
+         */
+        public void insertContent(int offset, CharSequence text) {
+            insertContent(offset, text, LocalDateTime.now());
+        }
+        
+        public void appendContent(CharSequence text) {
+            insertContent(contentText().length(), text);
+        }
+        
+        /**
+         * Insert with a given modification date, e.g. when replaying a journaled insert
+         */
+        void insertContent(int offset, CharSequence text, LocalDateTime modified) {
+            if (text.length() == 0) {
+                return;
+            }
+            long start = Metrics.start();
+            CharSequence old = contentText();
+            LocalDateTime oldModified = getModifiedDate();
+            MappedText oldMapped = mappedContent;
+            putContent(PieceTable.insert(old, offset, text));
+            putModifiedDate(modified);
+            fireUnmapped(oldMapped, old);
+            if (store != null) store.fireContentInserted(this, offset, text, oldModified);
+            Metrics.record(Metrics.Operation.EDIT, start);
+        }
+        
+        /**
+         * Tell listeners that content still in the mapped file was replaced by content on the heap
+         */
+        private void fireUnmapped(MappedText oldMapped, CharSequence oldContent) {
+            if (oldMapped != null && store != null) {
+                store.fireContentUnmapped(this, oldMapped.length, oldContent.length());
+            }
+        }
+        
+        public NoteCategory getCategory() {
+            NoteColumns columns = columns();
+            return columns != null ? columns.category(slot) : category;
+        }
+        public void setCategory(NoteCategory category) { 
+            long start = Metrics.start();
+            NoteCategory oldCategory = getCategory();
+            LocalDateTime oldModified = getModifiedDate();
+            putCategory(category);
+            putModifiedDate(LocalDateTime.now());
+            if (store != null) store.fireUpdated(this, getTitle(), getContent(), oldCategory, oldModified);
+            Metrics.record(Metrics.Operation.EDIT, start);
+        }
+        
+        public LocalDateTime getCreatedDate() {
+            NoteColumns columns = columns();
+            return columns != null ? columns.createdDate(slot) : createdDate;
+        }
+        public LocalDateTime getModifiedDate() {
+            NoteColumns columns = columns();
+            return columns != null ? columns.modifiedDate(slot) : modifiedDate;
+        }
+        
+        // Field writes without events, to this note or to the columns of its store
+        private void putTitle(String title) {
+            NoteColumns columns = columns();
+            if (columns != null) {
+                columns.setTitle(slot, title);
+            } else {
+                this.title = title;
+            }
+        }
+        
+        private void putContent(CharSequence content) {
+            NoteColumns columns = columns();
+            if (columns != null) {
+                columns.setContent(slot, content.toString());
+            } else {
+                this.content = content;
+            }
+            this.mappedContent = null;
+        }
+        
+        private void putCategory(NoteCategory category) {
+            NoteColumns columns = columns();
+            if (columns != null) {
+                columns.setCategory(slot, category);
+            } else {
+                this.category = category;
+            }
+        }
+        
+        private void putDates(LocalDateTime created, LocalDateTime modified) {
+            NoteColumns columns = columns();
+            if (columns != null) {
+                columns.setCreatedDate(slot, created);
+            } else {
+                this.createdDate = created;
+            }
+            putModifiedDate(modified);
+        }
+        
+        private void putModifiedDate(LocalDateTime modified) {
+            NoteColumns columns = columns();
+            if (columns != null) {
+                columns.setModifiedDate(slot, modified);
+            } else {
+                this.modifiedDate = modified;
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("[%s] %s - Created: %s", 
+                getCategory().getDisplayName(), 
+                getTitle(), 
+                getCreatedDate().format(DISPLAY_DATE_FORMAT));
+        }
+        
+        public String toFileFormat() {
+            return getTitle() + "|" + getContent().replace("\n", "\\n") + "|" + 
+                   getCategory().name() + "|" + getCreatedDate().format(FILE_DATE_FORMAT) + "|" + 
+                   getModifiedDate().format(FILE_DATE_FORMAT) + "|" + id;
+        }
+        
+        /**
+         * Parse a line written by toFileFormat(), or return null if it is malformed
+         */
+        public static Note fromFileFormat(String line) {
+            String[] parts = line.split("\\|");
+            if (parts.length < 5) {
+                return null;
+            }
+            
+            String title = parts[0];
+            String content = parts[1].replace("\\n", "\n");
+            NoteCategory category = NoteCategory.valueOf(parts[2]);
+            
+            Note note = new Note(title, content, category);
+            
+            // Parse dates
+            note.createdDate = LocalDateTime.parse(parts[3], FILE_DATE_FORMAT);
+            note.modifiedDate = LocalDateTime.parse(parts[4], FILE_DATE_FORMAT);
+            
+            // Older files have no ID column; those notes get new IDs
+            if (parts.length >= 6) {
+                note.id = Integer.parseInt(parts[5]);
+            }
+            return note;
+        }
+        
+        /**
+         * Copy this note's fields into a new note that belongs to no store
+         * Later edits to this note do not change the copy, so it can be written from another thread.
+         */
+        Note detachedCopy() {
+            MappedText mapped = mappedContent;
+            // A PieceTable is never changed once made, so the copy can share it
+            Note copy = new Note(getTitle(), mapped != null ? null : contentText(), getCategory());
+            copy.id = id;
+            copy.mappedContent = mapped;
+            copy.createdDate = getCreatedDate();
+            copy.modifiedDate = getModifiedDate();
+            return copy;
+        }
+        
+        /**
+         * Overwrite this note's fields with another copy of it, e.g. when replaying the journal
+         */
+        void restoreFrom(Note other) {
+            String oldTitle = getTitle();
+            String oldContent = getContent();
+            NoteCategory oldCategory = getCategory();
+            LocalDateTime oldModified = getModifiedDate();
+            MappedText oldMapped = mappedContent;
+            putTitle(other.getTitle());
+            putContent(other.contentText());
+            putCategory(other.getCategory());
+            putDates(other.getCreatedDate(), other.getModifiedDate());
+            fireUnmapped(oldMapped, oldContent);
+            if (store != null) store.fireUpdated(this, oldTitle, oldContent, oldCategory, oldModified);
+        }
+    }
+    
+    /**
+     * Large note content as a piece table: slices of an original text and of an append-only buffer
+     * An insert adds one piece for the new text (splitting the piece it lands in),
+     * so it costs time in the length of the change and the number of pieces, not
+     * the length of the content. Every edit returns a new table and leaves the old
+     * one as it was, since the buffer is only ever appended to. The content as a
+     * String is built on first use and held through a soft reference, so it can be
+     * dropped again when memory runs low. After MAX_PIECES pieces the table is
+     * merged back into a single text.
+     * Arrays
+     */
+    static final class PieceTable implements CharSequence {
+        // Shorter content is kept as a plain String
+        static final int MIN_LENGTH = 64 * 1024;
+        private static final int MAX_PIECES = 1024;
+        
+        private final String original;
+        private final AddBuffer added;
+        // Piece i starts at starts[i] in the original, or at -1 - starts[i] in the buffer,
+        // and ends at ends[i] in this text
+        private final int[] starts;
+        private final int[] ends;
+        private SoftReference<String> text;
+        
+        private PieceTable(String original, AddBuffer added, int[] starts, int[] ends) {
+            this.original = original;
+            this.added = added;
+            this.starts = starts;
+            this.ends = ends;
+        }
+        
+        static PieceTable of(String text) {
+            return text.isEmpty() ? new PieceTable("", new AddBuffer(), new int[0], new int[0])
+                    : new PieceTable(text, new AddBuffer(), new int[] {0}, new int[] {text.length()});
+        }
+        
+        /**
+         * Insert into any content, returning a String while the result stays short
+         */
+        static CharSequence insert(CharSequence content, int offset, CharSequence text) {
+            if (content instanceof PieceTable) {
+                return ((PieceTable) content).insert(offset, text);
+            }
+            String base = content.toString();
+            if (base.length() + text.length() < MIN_LENGTH) {
+                return base.substring(0, offset) + text + base.substring(offset);
+            }
+            return of(base).insert(offset, text);
+        }
+        
+        /**
+         * Read all of a reader into the buffer of a new table (or a String, if it is short)
+         * The text is copied once, from the reader's chunks into the buffer.
+         */
+        static CharSequence read(Reader in) throws IOException {
+            Builder builder = new Builder();
+            char[] chunk = new char[8192];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+                builder.append(chunk, count);
+            }
+            return builder.build();
+        }
+        
+        public PieceTable insert(int offset, CharSequence text) {
+            int length = length();
+            if (offset < 0 || offset > length) {
+                throw new IndexOutOfBoundsException("Offset " + offset + " outside 0.." + length);
+            }
+            if (text.length() == 0) {
+                return this;
+            }
+            int start = added.append(text);
+            int count = starts.length;
+            // The piece at the offset, or count when inserting at the end
+            int at = offset == length ? count : pieceAt(offset);
+            int pieceStart = at > 0 ? ends[at - 1] : 0;
+            
+            // Typing or appending at the end of the last insert just lengthens that piece
+            if (offset == pieceStart && at > 0 && starts[at - 1] < 0
+                    && -1 - starts[at - 1] + ends[at - 1] - (at > 1 ? ends[at - 2] : 0) == start) {
+                int[] newEnds = ends.clone();
+                for (int i = at - 1; i < count; i++) {
+                    newEnds[i] += text.length();
+                }
+                return new PieceTable(original, added, starts, newEnds);
+            }
+            
+            boolean split = offset > pieceStart;
+            int newCount = count + (split ? 2 : 1);
+            if (newCount > MAX_PIECES) {
+                return of(toString()).insert(offset, text);
+            }
+            int[] newStarts = new int[newCount];
+            int[] newEnds = new int[newCount];
+            System.arraycopy(starts, 0, newStarts, 0, at);
+            System.arraycopy(ends, 0, newEnds, 0, at);
+            int next = at;
+            if (split) {
+                // Left part of the piece, up to the offset
+                newStarts[next] = starts[at];
+                newEnds[next++] = offset;
+            }
+            newStarts[next] = -1 - start;
+            newEnds[next++] = offset + text.length();
+            if (split) {
+                // Right part of the piece, after the inserted text
+                int skip = offset - pieceStart;
+                newStarts[next] = starts[at] >= 0 ? starts[at] + skip : starts[at] - skip;
+                newEnds[next++] = ends[at] + text.length();
+                at++;
+            }
+            for (int i = at; i < count; i++, next++) {
+                newStarts[next] = starts[i];
+                newEnds[next] = ends[i] + text.length();
+            }
+            return new PieceTable(original, added, newStarts, newEnds);
+        }
+        
+        /**
+         * Index of the piece holding the character at an offset
+         */
+        private int pieceAt(int offset) {
+            int pos = Arrays.binarySearch(ends, offset);
+            // Pieces end exclusively, so an offset equal to an end belongs to the next piece
+            return pos >= 0 ? pos + 1 : -pos - 1;
+        }
+        
+        @Override
+        public int length() {
+            return ends.length == 0 ? 0 : ends[ends.length - 1];
+        }
+        
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + length());
+            }
+            int piece = pieceAt(index);
+            int skip = index - (piece > 0 ? ends[piece - 1] : 0);
+            return starts[piece] >= 0 ? original.charAt(starts[piece] + skip) : added.charAt(-1 - starts[piece] + skip);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+        
+        @Override
+        public String toString() {
+            SoftReference<String> cached = text;
+            String result = cached != null ? cached.get() : null;
+            if (result == null) {
+                char[] chars = new char[length()];
+                for (int i = 0; i < starts.length; i++) {
+                    int from = i > 0 ? ends[i - 1] : 0;
+                    if (starts[i] >= 0) {
+                        original.getChars(starts[i], starts[i] + ends[i] - from, chars, from);
+                    } else {
+                        added.getChars(-1 - starts[i], ends[i] - from, chars, from);
+                    }
+                }
+                result = new String(chars);
+                text = new SoftReference<>(result);
+            }
+            return result;
+        }
+        
+        /**
+         * Collects streamed text straight into the buffer of a new table
+         */
+        static final class Builder {
+            private final AddBuffer buffer = new AddBuffer();
+            
+            Builder append(CharSequence text) {
+                buffer.append(text);
+                return this;
+            }
+            
+            Builder append(char[] chars, int count) {
+                buffer.append(CharBuffer.wrap(chars, 0, count));
+                return this;
+            }
+            
+            int length() {
+                return buffer.length;
+            }
+            
+            /**
+             * The collected text: a String if it is short, else a table with one piece
+             */
+            CharSequence build() {
+                int length = buffer.length;
+                if (length < MIN_LENGTH) {
+                    char[] chars = new char[length];
+                    buffer.getChars(0, length, chars, 0);
+                    return new String(chars);
+                }
+                return new PieceTable("", buffer, new int[] {-1}, new int[] {length});
+            }
+        }
+        
+        /**
+         * Append-only text in fixed-size chunks, shared by every version of a table
+         * Chunks are never moved or changed once written, so older versions can
+         * read their parts of it while a newer version appends.
+         */
+        private static final class AddBuffer {
+            private static final int CHUNK_BITS = 16;
+            private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+            private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+            
+            private char[][] chunks = new char[4][];
+            private int length;
+            
+            /**
+             * Append text and return where it starts
+             */
+            synchronized int append(CharSequence text) {
+                int start = length;
+                for (int i = 0; i < text.length(); ) {
+                    int chunk = length >>> CHUNK_BITS;
+                    if (chunk == chunks.length) {
+                        chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                    }
+                    if (chunks[chunk] == null) {
+                        chunks[chunk] = new char[CHUNK_SIZE];
+                    }
+                    int count = Math.min(text.length() - i, CHUNK_SIZE - (length & CHUNK_MASK));
+                    CharBuffer.wrap(text, i, i + count).get(chunks[chunk], length & CHUNK_MASK, count);
+                    i += count;
+                    length += count;
+                }
+                return start;
+            }
+            
+            char charAt(int index) {
+                return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+            }
+            
+            void getChars(int start, int count, char[] target, int offset) {
+                while (count > 0) {
+                    int part = Math.min(count, CHUNK_SIZE - (start & CHUNK_MASK));
+                    System.arraycopy(chunks[start >>> CHUNK_BITS], start & CHUNK_MASK, target, offset, part);
+                    start += part;
+                    offset += part;
+                    count -= part;
+                }
+            }
+        }
+    }
+    
+    /**
+     * A note field stored in a memory-mapped region of the data file
+     * Only the position is kept; the text is decoded each time it is needed.
+     */
+    static final class MappedText {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private final boolean escaped; // Text format stores newlines as "\\n"
+        
+        MappedText(ByteBuffer buffer, int offset, int length, boolean escaped) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.escaped = escaped;
+        }
+        
+        String decode() {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            return escaped ? text.replace("\\n", "\n") : text;
+        }
+    }
+    
+    /**
+     * Column-oriented storage for the fields of every note in a NoteStore
+     * Rows are store slots. The category is a byte, the dates are epoch seconds, and
+     * title and content are UTF-8 in large shared pages of bytes, on the heap or off it.
+     * A note in a store with columns keeps none of these fields itself, which saves
+     * two Strings and two LocalDateTime objects (each with a date and a time) per note.
+     * Replaced text is left in its page and reclaimed when the store next adds or
+     * removes a note, once more than half of all page bytes are unused.
+     * Arrays, Memory Management
+     */
+    static final class NoteColumns {
+        private static final int ROW_BITS = 12;
+        private static final int ROWS = 1 << ROW_BITS;
+        private static final int ROW_MASK = ROWS - 1;
+        private static final int PAGE_SIZE = 1 << 20;
+        private static final int NO_TEXT = -1; // Content is in the note's MappedText instead
+        private static final NoteCategory[] CATEGORIES = NoteCategory.values();
+        
+        /**
+         * Columns for one block of rows; blocks never move, so growing never copies rows
+         */
+        private static final class Block {
+            final byte[] category = new byte[ROWS];
+            final long[] created = new long[ROWS];
+            final long[] modified = new long[ROWS];
+            final long[] titleRef = new long[ROWS];
+            final int[] titleLength = new int[ROWS];
+            final long[] contentRef = new long[ROWS];
+            final int[] contentLength = new int[ROWS];
+        }
+        
+        private final boolean offHeap;
+        private volatile Block[] blocks = new Block[8];
+        // A text reference is (page index << 32) | offset in the page
+        private volatile ByteBuffer[] pages = new ByteBuffer[16];
+        private int pageCount = 0;
+        private int currentPage = -1;
+        private long allocatedBytes = 0;
+        private long unusedBytes = 0;
+        
+        NoteColumns(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+        
+        public boolean isOffHeap() { return offHeap; }
+        
+        /**
+         * Bytes held in text pages, including replaced text not yet reclaimed
+         */
+        public synchronized long pageBytes() {
+            return allocatedBytes;
+        }
+        
+        private Block block(int row) {
+            return blocks[row >>> ROW_BITS];
+        }
+        
+        // Readers; a note's row is only read while the store is not being changed
+        String title(int row) {
+            Block block = block(row);
+            return text(block.titleRef[row & ROW_MASK], block.titleLength[row & ROW_MASK]);
+        }
+        
+        String content(int row) {
+            Block block = block(row);
+            return text(block.contentRef[row & ROW_MASK], block.contentLength[row & ROW_MASK]);
+        }
+        
+        NoteCategory category(int row) {
+            return CATEGORIES[block(row).category[row & ROW_MASK]];
+        }
+        
+        LocalDateTime createdDate(int row) {
+            return LocalDateTime.ofEpochSecond(block(row).created[row & ROW_MASK], 0, ZoneOffset.UTC);
+        }
+        
+        LocalDateTime modifiedDate(int row) {
+            return LocalDateTime.ofEpochSecond(block(row).modified[row & ROW_MASK], 0, ZoneOffset.UTC);
+        }
+        
+        // Writers for the setters of a note in the store
+        void setTitle(int row, String title) {
+            Block block = block(row);
+            int i = row & ROW_MASK;
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            long ref = append(bytes, block.titleLength[i]);
+            block.titleRef[i] = ref;
+            block.titleLength[i] = bytes.length;
+        }
+        
+        void setContent(int row, String content) {
+            Block block = block(row);
+            int i = row & ROW_MASK;
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            long ref = append(bytes, Math.max(block.contentLength[i], 0));
+            block.contentRef[i] = ref;
+            block.contentLength[i] = bytes.length;
+        }
+        
+        void setCategory(int row, NoteCategory category) {
+            block(row).category[row & ROW_MASK] = (byte) category.ordinal();
+        }
+        
+        void setCreatedDate(int row, LocalDateTime created) {
+            block(row).created[row & ROW_MASK] = NoteCodec.toEpochSecond(created);
+        }
+        
+        void setModifiedDate(int row, LocalDateTime modified) {
+            block(row).modified[row & ROW_MASK] = NoteCodec.toEpochSecond(modified);
+        }
+        
+        /**
+         * Move a note's fields into its row; called by the store when the note is added
+         */
+        void adopt(Note note) {
+            int row = note.slot;
+            Block[] current = blocks;
+            if ((row >>> ROW_BITS) == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            if (current[row >>> ROW_BITS] == null) {
+                current[row >>> ROW_BITS] = new Block();
+            }
+            blocks = current;
+            
+            Block block = current[row >>> ROW_BITS];
+            int i = row & ROW_MASK;
+            block.category[i] = (byte) note.category.ordinal();
+            block.created[i] = NoteCodec.toEpochSecond(note.createdDate);
+            block.modified[i] = NoteCodec.toEpochSecond(note.modifiedDate);
+            byte[] title = note.title.getBytes(StandardCharsets.UTF_8);
+            block.titleRef[i] = append(title, 0);
+            block.titleLength[i] = title.length;
+            if (note.mappedContent != null) {
+                block.contentRef[i] = 0;
+                block.contentLength[i] = NO_TEXT;
+            } else {
+                byte[] content = note.content.toString().getBytes(StandardCharsets.UTF_8);
+                block.contentRef[i] = append(content, 0);
+                block.contentLength[i] = content.length;
+            }
+            note.title = null;
+            note.content = null;
+            note.category = null;
+            note.createdDate = null;
+            note.modifiedDate = null;
+        }
+        
+        /**
+         * Copy a note's fields back out of its row; called by the store when the note leaves it
+         */
+        void release(Note note) {
+            int row = note.slot;
+            Block block = block(row);
+            int i = row & ROW_MASK;
+            note.title = title(row);
+            if (block.contentLength[i] != NO_TEXT) {
+                note.content = content(row);
+            }
+            note.category = category(row);
+            note.createdDate = createdDate(row);
+            note.modifiedDate = modifiedDate(row);
+            synchronized (this) {
+                unusedBytes += block.titleLength[i] + Math.max(block.contentLength[i], 0);
+            }
+        }
+        
+        /**
+         * Copy one row over another, when the store moves its last note into a freed slot
+         */
+        void move(int from, int to) {
+            Block source = block(from);
+            Block target = block(to);
+            int f = from & ROW_MASK;
+            int t = to & ROW_MASK;
+            target.category[t] = source.category[f];
+            target.created[t] = source.created[f];
+            target.modified[t] = source.modified[f];
+            target.titleRef[t] = source.titleRef[f];
+            target.titleLength[t] = source.titleLength[f];
+            target.contentRef[t] = source.contentRef[f];
+            target.contentLength[t] = source.contentLength[f];
+        }
+        
+        /**
+         * Drop every row and page
+         */
+        synchronized void clear() {
+            blocks = new Block[8];
+            pages = new ByteBuffer[16];
+            pageCount = 0;
+            currentPage = -1;
+            allocatedBytes = 0;
+            unusedBytes = 0;
+        }
+        
+        private String text(long ref, int length) {
+            if (length == 0) {
+                return "";
+            }
+            byte[] bytes = new byte[length];
+            pages[(int) (ref >>> 32)].get((int) ref, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        /**
+         * Copy bytes into the current page and return their reference
+         * Text longer than a page gets a page of its own. Synchronized because
+         * several notes of one store may be edited at once in server mode.
+         */
+        private synchronized long append(byte[] bytes, int replacedLength) {
+            unusedBytes += replacedLength;
+            if (bytes.length == 0) {
+                return 0;
+            }
+            ByteBuffer page;
+            int pageIndex;
+            if (bytes.length > PAGE_SIZE) {
+                pageIndex = addPage(bytes.length);
+                page = pages[pageIndex];
+            } else {
+                if (currentPage < 0 || pages[currentPage].remaining() < bytes.length) {
+                    currentPage = addPage(PAGE_SIZE);
+                }
+                pageIndex = currentPage;
+                page = pages[pageIndex];
+            }
+            int offset = page.position();
+            page.put(bytes);
+            return ((long) pageIndex << 32) | offset;
+        }
+        
+        private int addPage(int capacity) {
+            ByteBuffer[] current = pages;
+            if (pageCount == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[pageCount] = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            pages = current;
+            allocatedBytes += capacity;
+            return pageCount++;
+        }
+        
+        /**
+         * Rewrite the live text of all rows into new pages if most page bytes are unused
+         * Only called by the store while it is adding or removing a note, when no
+         * other thread reads notes, since text references change.
+         */
+        synchronized void compactIfNeeded(int rows) {
+            if (unusedBytes < PAGE_SIZE || unusedBytes * 2 < allocatedBytes) {
+                return;
+            }
+            ByteBuffer[] oldPages = pages;
+            pages = new ByteBuffer[16];
+            pageCount = 0;
+            currentPage = -1;
+            allocatedBytes = 0;
+            unusedBytes = 0;
+            for (int row = 0; row < rows; row++) {
+                Block block = block(row);
+                int i = row & ROW_MASK;
+                block.titleRef[i] = copy(oldPages, block.titleRef[i], block.titleLength[i]);
+                if (block.contentLength[i] != NO_TEXT) {
+                    block.contentRef[i] = copy(oldPages, block.contentRef[i], block.contentLength[i]);
+                }
+            }
+        }
+        
+        private long copy(ByteBuffer[] oldPages, long ref, int length) {
+            byte[] bytes = new byte[length];
+            if (length > 0) {
+                oldPages[(int) (ref >>> 32)].get((int) ref, bytes);
+            }
+            return append(bytes, 0);
+        }
+    }
+    
+    /**
+     * Binary encoder and decoder for the data file format
+     * A file starts with a header (magic "NOTE", format version, note count),
+     * followed by one length-prefixed record per note:
+     * [record length][id][category ordinal byte][created][modified][title][content]
+     * Dates are epoch seconds, and title and content are UTF-8 with an int length prefix.
+     * Text is encoded straight into the caller's buffer and decoded straight from it,
+     * and readers skip any bytes a newer version appends to a record.
+     * File Handling, Enums
+     */
+    static class NoteCodec {
+        static final int MAGIC = 0x4E4F5445; // "NOTE"
+        static final byte VERSION = 1;
+        static final int HEADER_BYTES = 9;
+        static final int MAX_RECORD_BYTES = 1 << 30;
+        private static final int FIXED_RECORD_BYTES = 4 + 4 + 1 + 8 + 8 + 4 + 4;
+        private static final NoteCategory[] CATEGORIES = NoteCategory.values();
+        
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        /**
+         * Check if a file starts with the binary header (otherwise it is the old text format)
+         */
+        public static boolean isBinaryFile(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer magic = ByteBuffer.allocate(4);
+                while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                    // Keep reading until the magic number is complete or the file ends
+                }
+                return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+            }
+        }
+        
+        public static void writeHeader(ByteBuffer out, int noteCount) {
+            out.putInt(MAGIC);
+            out.put(VERSION);
+            out.putInt(noteCount);
+        }
+        
+        /**
+         * Read and check the header, returning the note count
+         */
+        public static int readHeader(ByteBuffer in) throws IOException {
+            if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+                throw new IOException("Not a notes data file");
+            }
+            byte version = in.get();
+            if (version > VERSION) {
+                throw new IOException("Unsupported data file version: " + version);
+            }
+            return in.getInt();
+        }
+        
+        /**
+         * Encode one note at the buffer's position
+         * Returns false, leaving the position unchanged, if the record does not fit.
+         */
+        public boolean encode(Note note, ByteBuffer out) {
+            int start = out.position();
+            if (out.remaining() < FIXED_RECORD_BYTES) {
+                return false;
+            }
+            out.position(start + 4); // Record length is filled in at the end
+            out.putInt(note.getId());
+            out.put((byte) note.getCategory().ordinal());
+            out.putLong(toEpochSecond(note.getCreatedDate()));
+            out.putLong(toEpochSecond(note.getModifiedDate()));
+            if (!putText(note.getTitle(), out) || !putText(note.getContent(), out)) {
+                out.position(start);
+                return false;
+            }
+            out.putInt(start, out.position() - start - 4);
+            return true;
+        }
+        
+        /**
+         * Encode an insert into a note's content at the buffer's position
+         * Returns false, leaving the position unchanged, if it does not fit.
+         */
+        public boolean encodeInsert(ContentInsert insert, ByteBuffer out) {
+            int start = out.position();
+            if (out.remaining() < 4 + 4 + 4 + 8) {
+                return false;
+            }
+            out.putInt(insert.id);
+            out.putInt(insert.oldLength);
+            out.putInt(insert.offset);
+            out.putLong(toEpochSecond(insert.modified));
+            if (!putText(insert.text, out)) {
+                out.position(start);
+                return false;
+            }
+            return true;
+        }
+        
+        public static ContentInsert decodeInsert(ByteBuffer in) {
+            int id = in.getInt();
+            int oldLength = in.getInt();
+            int offset = in.getInt();
+            LocalDateTime modified = LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+            return new ContentInsert(id, oldLength, offset, getText(in), modified);
+        }
+        
+        private boolean putText(CharSequence text, ByteBuffer out) {
+            if (out.remaining() < 4) {
+                return false;
+            }
+            int lengthPos = out.position();
+            out.position(lengthPos + 4);
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(text), out, true);
+            if (result.isOverflow() || encoder.flush(out).isOverflow()) {
+                return false;
+            }
+            out.putInt(lengthPos, out.position() - lengthPos - 4);
+            return true;
+        }
+        
+        /**
+         * Check if a whole record is available at the buffer's position
+         */
+        public static boolean hasRecord(ByteBuffer in) throws IOException {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            int length = in.getInt(in.position());
+            if (length < FIXED_RECORD_BYTES - 4 || length > MAX_RECORD_BYTES) {
+                throw new IOException("Corrupt note record of " + length + " bytes");
+            }
+            return in.remaining() >= 4 + length;
+        }
+        
+        /**
+         * Decode the record at the buffer's position and move past it
+         * With lazyContent the content is not decoded; the note refers to it in the buffer.
+         */
+        public static Note decode(ByteBuffer in, boolean lazyContent) {
+            int length = in.getInt();
+            int end = in.position() + length;
+            int id = in.getInt();
+            NoteCategory category = CATEGORIES[in.get()];
+            long created = in.getLong();
+            long modified = in.getLong();
+            String title = getText(in);
+            
+            Note note;
+            if (lazyContent) {
+                int contentLength = in.getInt();
+                note = new Note(title, null, category);
+                note.mappedContent = new MappedText(in, in.position(), contentLength, false);
+            } else {
+                note = new Note(title, getText(in), category);
+            }
+            note.id = id;
+            note.createdDate = LocalDateTime.ofEpochSecond(created, 0, ZoneOffset.UTC);
+            note.modifiedDate = LocalDateTime.ofEpochSecond(modified, 0, ZoneOffset.UTC);
+            in.position(end);
+            return note;
+        }
+        
+        private static String getText(ByteBuffer in) {
+            int length = in.getInt();
+            int start = in.position();
+            in.position(start + length);
+            if (in.hasArray()) {
+                return new String(in.array(), in.arrayOffset() + start, length, StandardCharsets.UTF_8);
+            }
+            return StandardCharsets.UTF_8.decode(in.slice(start, length)).toString();
+        }
+        
+        static long toEpochSecond(LocalDateTime dateTime) {
+            return dateTime.toEpochSecond(ZoneOffset.UTC);
+        }
+        
+        /**
+         * Stream every note of the store to a file through one reusable buffer
+         */
+        public void writeFile(NoteStore store, Path path) throws IOException {
+            writeFile(store::noteAt, store.size(), path);
+        }
+        
+        /**
+         * Write a data file holding the given notes
+         */
+        public void writeFile(Note[] notes, Path path) throws IOException {
+            writeFile(i -> notes[i], notes.length, path);
+        }
+        
+        private void writeFile(IntFunction<Note> notes, int count, Path path) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeHeader(buffer, count);
+                
+                for (int i = 0; i < count; i++) {
+                    Note note = notes.apply(i);
+                    if (!encode(note, buffer)) {
+                        drain(buffer, channel);
+                        if (!encode(note, buffer)) {
+                            // Note is larger than the buffer; encode it on its own
+                            ByteBuffer large = ByteBuffer.allocate(buffer.capacity() * 2);
+                            while (!encode(note, large)) {
+                                large = ByteBuffer.allocate(large.capacity() * 2);
+                            }
+                            drain(large, channel);
+                        }
+                    }
+                }
+                drain(buffer, channel);
+                channel.force(true);
+            }
+        }
+        
+        private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        
+        /**
+         * Stream every record of a binary data file into the store
+         * Returns the number of notes read.
+         */
+        public static int readFile(Path path, NoteStore store) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            int loaded = 0;
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer.flip();
+                if (!fill(buffer, channel, HEADER_BYTES)) {
+                    throw new IOException("Not a notes data file");
+                }
+                readHeader(buffer);
+                
+                while (true) {
+                    if (!hasRecord(buffer)) {
+                        int needed = buffer.remaining() < 4 ? 4 : 4 + buffer.getInt(buffer.position());
+                        if (needed > buffer.capacity()) {
+                            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+                            larger.put(buffer);
+                            larger.flip();
+                            buffer = larger;
+                        }
+                        if (!fill(buffer, channel, needed)) {
+                            if (buffer.hasRemaining()) {
+                                throw new IOException("Truncated note record after " + loaded + " note(s)");
+                            }
+                            return loaded;
+                        }
+                        continue;
+                    }
+                    store.add(decode(buffer, false));
+                    loaded++;
+                }
+            }
+        }
+        
+        /**
+         * Read from the channel until at least the given number of bytes is available
+         * Returns false if the file ends first.
+         */
+        private static boolean fill(ByteBuffer buffer, FileChannel channel, int bytes) throws IOException {
+            buffer.compact();
+            try {
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+            }
+        }
+    }
+    
+    /**
+     * Lazy loader that memory-maps the data file
+     * At startup only each note's title, category, dates and ID are decoded;
+     * the content stays in the mapped file until a note is viewed, edited or searched.
+     * Files larger than one mapping window are mapped in several windows that
+     * each start on a record boundary. Both the binary and the old text format are supported.
+     * File Handling, Exception Handling
+     */
+    static class MappedNoteFile {
+        private static final long WINDOW_BYTES = 1L << 30;
+        
+        /**
+         * Map a data file and add a lazily loaded note for every record in it
+         * Returns the number of notes added.
+         */
+        public static int load(Path path, NoteStore store) throws IOException {
+            return NoteCodec.isBinaryFile(path) ? loadBinary(path, store) : loadText(path, store);
+        }
+        
+        private static int loadBinary(Path path, NoteStore store) throws IOException {
+            int loaded = 0;
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                long windowStart = 0;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(WINDOW_BYTES, fileSize));
+                NoteCodec.readHeader(buffer);
+                
+                while (windowStart + buffer.position() < fileSize) {
+                    if (!NoteCodec.hasRecord(buffer)) {
+                        // Remap so the next window starts at this record
+                        windowStart += buffer.position();
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                Math.min(WINDOW_BYTES, fileSize - windowStart));
+                        if (!NoteCodec.hasRecord(buffer)) {
+                            throw new IOException("Truncated note record at byte " + windowStart);
+                        }
+                    }
+                    store.add(NoteCodec.decode(buffer, true));
+                    loaded++;
+                }
+            }
+            return loaded;
+        }
+        
+        private static int loadText(Path path, NoteStore store) throws IOException {
+            int loaded = 0;
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                long windowStart = 0;
+                boolean headerSkipped = false;
+                
+                while (windowStart < fileSize) {
+                    long windowSize = Math.min(WINDOW_BYTES, fileSize - windowStart);
+                    boolean lastWindow = windowStart + windowSize == fileSize;
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                    
+                    int lineStart = 0;
+                    int limit = (int) windowSize;
+                    while (lineStart < limit) {
+                        int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+                        if (lineEnd < 0) {
+                            if (!lastWindow) {
+                                break; // Line continues in the next window
+                            }
+                            lineEnd = limit;
+                        }
+                        
+                        if (!headerSkipped) {
+                            headerSkipped = true; // First line holds the note count
+                        } else if (addNote(buffer, lineStart, lineEnd, store)) {
+                            loaded++;
+                        }
+                        lineStart = lineEnd + 1;
+                    }
+                    
+                    if (lineStart == 0 && !lastWindow) {
+                        throw new IOException("Note record larger than " + WINDOW_BYTES + " bytes");
+                    }
+                    windowStart += lineStart;
+                }
+            }
+            return loaded;
+        }
+        
+        private static boolean addNote(ByteBuffer buffer, int start, int end, NoteStore store) {
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            int titleEnd = indexOf(buffer, (byte) '|', start, end);
+            int contentEnd = titleEnd < 0 ? -1 : indexOf(buffer, (byte) '|', titleEnd + 1, end);
+            if (contentEnd < 0) {
+                return false;
+            }
+            
+            // Fields after the content are short, so they are decoded right away
+            String[] parts = decode(buffer, contentEnd + 1, end).split("\\|");
+            if (parts.length < 3) {
+                return false;
+            }
+            
+            Note note = new Note(decode(buffer, start, titleEnd), null, NoteCategory.valueOf(parts[0]));
+            note.mappedContent = new MappedText(buffer, titleEnd + 1, contentEnd - titleEnd - 1, true);
+            note.createdDate = LocalDateTime.parse(parts[1], Note.FILE_DATE_FORMAT);
+            note.modifiedDate = LocalDateTime.parse(parts[2], Note.FILE_DATE_FORMAT);
+            if (parts.length >= 4) {
+                note.id = Integer.parseInt(parts[3]);
+            }
+            store.add(note);
+            return true;
+        }
+        
+        private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        private static String decode(ByteBuffer buffer, int from, int to) {
+            byte[] bytes = new byte[to - from];
+            buffer.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+    
+    /**
+     * Parallel loader for data files in the text format
+     * The file is split into line-aligned chunks that are parsed on the fork-join
+     * pool; the parsed notes are then added to the store in their original order.
+     * A malformed record is reported with its line number and skipped instead of
+     * aborting the whole load.
+     * File Handling, Exception Handling
+     */
+    static class ParallelTextLoader {
+        private static final long MIN_CHUNK_BYTES = 1 << 20;
+        private static final long MAX_CHUNK_BYTES = 64L << 20;
+        
+        private final List<String> errors = new ArrayList<>();
+        private int loaded = 0;
+        
+        /**
+         * Number of notes added by the last load
+         */
+        public int loaded() { return loaded; }
+        
+        /**
+         * Parse errors of the last load, as "line N: message"
+         */
+        public List<String> errors() { return errors; }
+        
+        /**
+         * Parse a text data file and add its notes to the store
+         */
+        public void load(Path path, NoteStore store) throws IOException {
+            errors.clear();
+            loaded = 0;
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                // The first line holds the note count, which the records themselves make redundant
+                long start = nextLineStart(channel, 0, fileSize);
+                
+                int workers = Runtime.getRuntime().availableProcessors();
+                long chunkBytes = Math.min(MAX_CHUNK_BYTES,
+                        Math.max(MIN_CHUNK_BYTES, (fileSize - start) / (workers * 4L) + 1));
+                
+                List<ChunkTask> tasks = new ArrayList<>();
+                while (start < fileSize) {
+                    long end = nextLineStart(channel, Math.min(fileSize, start + chunkBytes), fileSize);
+                    ChunkTask task = new ChunkTask(channel, start, end);
+                    task.fork();
+                    tasks.add(task);
+                    start = end;
+                }
+                
+                // Merge in file order; line numbers are 1-based and count the header line
+                int lineOffset = 1;
+                for (ChunkTask task : tasks) {
+                    ParsedChunk chunk = task.join();
+                    for (Note note : chunk.notes) {
+                        store.add(note);
+                        loaded++;
+                    }
+                    for (int i = 0; i < chunk.errorLines.size(); i++) {
+                        errors.add("line " + (lineOffset + chunk.errorLines.get(i) + 1) + ": " + chunk.errorMessages.get(i));
+                    }
+                    lineOffset += chunk.lineCount;
+                }
+            }
+        }
+        
+        /**
+         * Find the position just after the next line break at or after pos
+         */
+        private static long nextLineStart(FileChannel channel, long pos, long fileSize) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (pos < fileSize) {
+                buffer.clear();
+                int read = channel.read(buffer, pos);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        return pos + i + 1;
+                    }
+                }
+                pos += read;
+            }
+            return fileSize;
+        }
+        
+        private static final class ParsedChunk {
+            final List<Note> notes = new ArrayList<>();
+            final List<Integer> errorLines = new ArrayList<>();
+            final List<String> errorMessages = new ArrayList<>();
+            int lineCount = 0;
+        }
+        
+        private static final class ChunkTask extends RecursiveTask<ParsedChunk> {
+            private static final long serialVersionUID = 1L;
+            
+            private final transient FileChannel channel;
+            private final long start;
+            private final long end;
+            
+            ChunkTask(FileChannel channel, long start, long end) {
+                this.channel = channel;
+                this.start = start;
+                this.end = end;
+            }
+            
+            @Override
+            protected ParsedChunk compute() {
+                ParsedChunk chunk = new ParsedChunk();
+                String text;
+                try {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    text = StandardCharsets.UTF_8.decode(buffer).toString();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                
+                int lineStart = 0;
+                while (lineStart < text.length()) {
+                    int lineEnd = text.indexOf('\n', lineStart);
+                    if (lineEnd < 0) {
+                        lineEnd = text.length();
+                    }
+                    int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                    String line = text.substring(lineStart, contentEnd);
+                    
+                    if (!line.isEmpty()) {
+                        try {
+                            Note note = Note.fromFileFormat(line);
+                            if (note != null) {
+                                chunk.notes.add(note);
+                            } else {
+                                chunk.errorLines.add(chunk.lineCount);
+                                chunk.errorMessages.add("expected at least 5 fields");
+                            }
+                        } catch (RuntimeException e) {
+                            chunk.errorLines.add(chunk.lineCount);
+                            chunk.errorMessages.add(e.getMessage());
+                        }
+                    }
+                    chunk.lineCount++;
+                    lineStart = lineEnd + 1;
+                }
+                return chunk;
+            }
+        }
+    }
+    
+    /**
+     * Callback for changes to the notes in a NoteStore
+     * Used to keep indexes in sync with the store.
+     */
+    interface NoteListener {
+        void noteAdded(Note note);
+        void noteRemoved(Note note);
+        
+        /**
+         * Called after a setter ran; the old values are the ones before the change
+         * The creation date is never changed by an update.
+         */
+        void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified);
+        
+        /**
+         * Called before noteUpdated when an edit replaces content that was read lazily from the mapped file
+         * oldChars is the length of that content once decoded.
+         */
+        default void contentUnmapped(Note note, int mappedBytes, int oldChars) {
+        }
+        
+        /**
+         * Called after text was inserted into a note's content at an offset (and its modification date set)
+         * Listeners that can should only look at the inserted text and the words
+         * around it. By default this is treated as any other update, at the cost of
+         * rebuilding the old content.
+         */
+        default void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            String content = note.getContent();
+            String oldContent = content.substring(0, offset) + content.substring(offset + text.length());
+            noteUpdated(note, note.getTitle(), oldContent, note.getCategory(), oldModified);
+        }
+        
+        void notesCleared();
+    }
+    
+    /**
+     * Growable store of notes with stable IDs
+     * Notes are packed densely into fixed-size chunks, so growing the store never
+     * copies existing notes, and a hash map resolves a note ID to its note.
+     * Deleting moves the last note into the freed slot, which keeps the store
+     * gap-free and makes every delete O(1).
+     * Arrays, Collections
+     */
+    static class NoteStore {
+        private static final int CHUNK_BITS = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+        
+        private Note[][] chunks = new Note[8][];
+        private final Map<Integer, Note> notesById = new HashMap<>();
+        private int size = 0;
+        private int nextId = 1;
+        
+        private static final int PATTERN_CACHE_SIZE = 64;
+        private static final long REGEX_TIME_LIMIT_MILLIS = 2000;
+        
+        private final List<NoteListener> listeners = new ArrayList<>();
+        private NoteColumns columns; // Null unless the notes' fields are kept in columns
+        private final PatternCache patterns = new PatternCache(PATTERN_CACHE_SIZE);
+        private final SearchIndex searchIndex = new SearchIndex();
+        private final CategoryIndex categoryIndex = new CategoryIndex();
+        private final DateIndex dateIndex = new DateIndex();
+        private final TitleIndex titleIndex = new TitleIndex();
+        private final DuplicateIndex duplicateIndex = new DuplicateIndex();
+        
+        public NoteStore() {
+            listeners.add(searchIndex);
+            listeners.add(categoryIndex);
+            listeners.add(dateIndex);
+            listeners.add(titleIndex);
+            listeners.add(duplicateIndex);
+        }
+        
+        public SearchIndex searchIndex() {
+            searchIndex.ensureBuilt(this);
+            return searchIndex;
+        }
+        public CategoryIndex categoryIndex() { return categoryIndex; }
+        public DateIndex dateIndex() { return dateIndex; }
+        
+        public TitleIndex titleIndex() {
+            titleIndex.ensureBuilt(this);
+            return titleIndex;
+        }
+        
+        public DuplicateIndex duplicateIndex() {
+            duplicateIndex.ensureBuilt(this);
+            return duplicateIndex;
+        }
+        
+        /**
+         * The duplicate index if every note is signed, else null (it is never built here)
+         */
+        public DuplicateIndex duplicateIndexIfReady() {
+            return duplicateIndex.isReady() ? duplicateIndex : null;
+        }
+        
+        /**
+         * Start signing the notes for the duplicate index on a background thread
+         */
+        public void buildDuplicateIndexInBackground() {
+            duplicateIndex.buildInBackground(this);
+        }
+        
+        public void addListener(NoteListener listener) {
+            listeners.add(listener);
+        }
+        
+        public void removeListener(NoteListener listener) {
+            listeners.remove(listener);
+        }
+        
+        /**
+         * Keep the fields of all notes in columns instead of in the notes (see NoteColumns)
+         * Must be chosen while the store is empty.
+         */
+        public void useColumns(boolean offHeap) {
+            if (size > 0) {
+                throw new IllegalStateException("Columns must be chosen before notes are added");
+            }
+            columns = new NoteColumns(offHeap);
+        }
+        
+        public NoteColumns columns() { return columns; }
+        
+        public int size() { return size; }
+        public boolean isEmpty() { return size == 0; }
+        
+        /**
+         * Look up a note by its ID, or null if there is no such note
+         */
+        public Note get(int id) {
+            return notesById.get(id);
+        }
+        
+        /**
+         * Get the note stored at a slot (0 to size - 1)
+         * Slots are only meant for iteration; deletes may move notes between slots.
+         */
+        public Note noteAt(int slot) {
+            if (slot < 0 || slot >= size) {
+                throw new IndexOutOfBoundsException("Invalid slot: " + slot);
+            }
+            return chunks[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+        }
+        
+        /**
+         * Add a note, assigning it a new ID unless it already has one
+         */
+        public int add(Note note) {
+            if (note.id <= 0) {
+                note.id = nextId++;
+            } else if (notesById.containsKey(note.id)) {
+                throw new IllegalArgumentException("Duplicate note ID: " + note.id);
+            } else {
+                nextId = Math.max(nextId, note.id + 1);
+            }
+            
+            int chunk = size >>> CHUNK_BITS;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new Note[CHUNK_SIZE];
+            }
+            chunks[chunk][size & CHUNK_MASK] = note;
+            note.slot = size++;
+            if (columns != null) {
+                columns.compactIfNeeded(size - 1);
+                columns.adopt(note);
+            }
+            note.store = this;
+            notesById.put(note.id, note);
+            for (NoteListener listener : listeners) {
+                listener.noteAdded(note);
+            }
+            return note.id;
+        }
+        
+        /**
+         * Remove a note by ID and return it, or null if there is no such note
+         */
+        public Note remove(int id) {
+            Note note = notesById.remove(id);
+            if (note == null) {
+                return null;
+            }
+            
+            // Fill the hole with the last note so the slots stay gap-free
+            if (columns != null) {
+                columns.release(note);
+            }
+            int last = --size;
+            Note moved = chunks[last >>> CHUNK_BITS][last & CHUNK_MASK];
+            chunks[last >>> CHUNK_BITS][last & CHUNK_MASK] = null;
+            if (moved != note) {
+                chunks[note.slot >>> CHUNK_BITS][note.slot & CHUNK_MASK] = moved;
+                if (columns != null) {
+                    columns.move(last, note.slot);
+                }
+                moved.slot = note.slot;
+            }
+            if (columns != null) {
+                columns.compactIfNeeded(size);
+            }
+            note.slot = -1;
+            note.store = null;
+            for (NoteListener listener : listeners) {
+                listener.noteRemoved(note);
+            }
+            return note;
+        }
+        
+        /**
+         * Make sure new notes get IDs above maxId, e.g. when notes with lower IDs were not loaded
+         */
+        public void reserveIds(int maxId) {
+            nextId = Math.max(nextId, maxId + 1);
+        }
+        
+        /**
+         * Remove every note and reset ID assignment
+         */
+        public void clear() {
+            for (Note note : notesById.values()) {
+                if (columns != null) {
+                    columns.release(note);
+                }
+                note.store = null;
+            }
+            if (columns != null) {
+                columns.clear();
+            }
+            chunks = new Note[8][];
+            notesById.clear();
+            size = 0;
+            nextId = 1;
+            for (NoteListener listener : listeners) {
+                listener.notesCleared();
+            }
+        }
+        
+        /**
+         * Add a note created by the user (timed as a create, unlike bulk adds while loading)
+         */
+        public int createNote(Note note) {
+            long start = Metrics.start();
+            int id = add(note);
+            Metrics.record(Metrics.Operation.CREATE, start);
+            return id;
+        }
+        
+        /**
+         * Delete a note on the user's request (timed as a delete)
+         */
+        public Note deleteNote(int id) {
+            long start = Metrics.start();
+            Note note = remove(id);
+            Metrics.record(Metrics.Operation.DELETE, start);
+            return note;
+        }
+        
+        /**
+         * Find the IDs of notes in a category, optionally narrowed by a search keyword
+         */
+        public IdSet filter(NoteCategory category, String keyword) {
+            long start = Metrics.start();
+            IdSet matches = categoryIndex.idsIn(category);
+            if (keyword != null && !keyword.trim().isEmpty()) {
+                matches = search(keyword, matches);
+            }
+            Metrics.record(Metrics.Operation.FILTER, start);
+            return matches;
+        }
+        
+        /**
+         * Find the IDs of notes whose title or content matches a keyword
+         * Plain keywords are answered from the inverted index (which also finds a
+         * keyword inside longer words) and checked with a literal substring search,
+         * or scanned for if they are too short to narrow anything down; anything else is treated as a case-insensitive
+         * regular expression and scanned. A regex that runs for longer than
+         * REGEX_TIME_LIMIT_MILLIS is stopped with a SearchTimeoutException.
+         * If scope is not null, only notes with IDs in scope are considered.
+         * Regular Expressions, Collections
+         */
+        public IdSet find(String keyword, IdSet scope) {
+            long start = Metrics.start();
+            IdSet matches = search(keyword, scope);
+            Metrics.record(Metrics.Operation.SEARCH, start);
+            return matches;
+        }
+        
+        /**
+         * Pass the notes matching a keyword to a consumer as they are found
+         * Index results come in ID order. Regex queries are scanned in parallel
+         * chunks on the fork-join pool, and matches are passed on in store order as
+         * soon as every earlier chunk is done. Stops after limit matches (0 for no
+         * limit) or as soon as the consumer returns false, cancelling chunks that
+         * have not been scanned yet. Returns the number of notes passed on.
+         */
+        public int findEach(String keyword, IdSet scope, int limit, Predicate<Note> consumer) {
+            long start = Metrics.start();
+            int[] passed = {0};
+            search(keyword, scope, note -> {
+                passed[0]++;
+                return consumer.test(note) && (limit <= 0 || passed[0] < limit);
+            });
+            Metrics.record(Metrics.Operation.SEARCH, start);
+            return passed[0];
+        }
+        
+        private IdSet search(String keyword, IdSet scope) {
+            // Scans report matches in store order, so sort the IDs once at the end
+            int[][] found = {new int[16]};
+            int[] foundCount = {0};
+            search(keyword, scope, note -> {
+                if (foundCount[0] == found[0].length) {
+                    found[0] = Arrays.copyOf(found[0], foundCount[0] * 2);
+                }
+                found[0][foundCount[0]++] = note.getId();
+                return true;
+            });
+            return IdSet.of(found[0], foundCount[0]);
+        }
+        
+        private void search(String keyword, IdSet scope, Predicate<Note> sink) {
+            if (SearchIndex.isPlainKeyword(keyword)) {
+                LiteralMatcher literal = new LiteralMatcher(keyword);
+                Predicate<Note> containsKeyword = note ->
+                        literal.matches(note.getTitle()) || literal.matches(note.getContent());
+                
+                IdSet candidates = searchIndex().find(keyword);
+                if (candidates == null) {
+                    // No words to look up (only punctuation or spaces), so scan every note
+                    scan(scope, () -> containsKeyword, sink);
+                    return;
+                }
+                if (scope != null) {
+                    candidates = candidates.intersect(scope);
+                }
+                for (int i = 0; i < candidates.size(); i++) {
+                    Note note = get(candidates.get(i));
+                    // Every word matched; also check the words appear together as typed
+                    if (containsKeyword.test(note) && !sink.test(note)) {
+                        return;
+                    }
+                }
+                return;
+            }
+            
+            // Compiled case-insensitive patterns are reused for repeated queries
+            Pattern pattern = patterns.get(keyword);
+            SearchBudget budget = new SearchBudget(REGEX_TIME_LIMIT_MILLIS);
+            scan(scope, () -> {
+                // Each chunk counts its own steps against the query's shared deadline
+                SearchBudget chunkBudget = new SearchBudget(budget);
+                return note -> pattern.matcher(chunkBudget.wrap(note.getTitle())).find()
+                        || pattern.matcher(chunkBudget.wrap(note.getContent())).find();
+            }, sink);
+        }
+        
+        /**
+         * Test every note (or every note in scope) and pass matches to the sink in order
+         * Stores of more than one chunk are tested in parallel, with a bounded number
+         * of chunks in flight so an early stop leaves little work wasted.
+         */
+        private void scan(IdSet scope, Supplier<Predicate<Note>> tests, Predicate<Note> sink) {
+            int count = scope != null ? scope.size() : size;
+            if (count <= CHUNK_SIZE) {
+                for (Note note : new ScanTask(scope, 0, count, tests.get(), new AtomicBoolean()).compute()) {
+                    if (!sink.test(note)) {
+                        return;
+                    }
+                }
+                return;
+            }
+            
+            int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            int maxInFlight = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+            AtomicBoolean cancelled = new AtomicBoolean();
+            ArrayDeque<ScanTask> inFlight = new ArrayDeque<>();
+            int next = 0;
+            try {
+                while (next < chunkCount || !inFlight.isEmpty()) {
+                    while (next < chunkCount && inFlight.size() < maxInFlight) {
+                        int from = next * CHUNK_SIZE;
+                        ScanTask task = new ScanTask(scope, from, Math.min(count, from + CHUNK_SIZE), tests.get(), cancelled);
+                        task.fork();
+                        inFlight.add(task);
+                        next++;
+                    }
+                    for (Note note : inFlight.poll().join()) {
+                        if (!sink.test(note)) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                cancelled.set(true);
+                for (ScanTask task : inFlight) {
+                    task.cancel(false);
+                }
+            }
+        }
+        
+        /**
+         * Tests one range of slots (or of scope positions) and returns the matches in order
+         */
+        private final class ScanTask extends RecursiveTask<List<Note>> {
+            private static final long serialVersionUID = 1L;
+            
+            private final IdSet scope;
+            private final int from;
+            private final int to;
+            private final Predicate<Note> test;
+            private final AtomicBoolean cancelled;
+            
+            ScanTask(IdSet scope, int from, int to, Predicate<Note> test, AtomicBoolean cancelled) {
+                this.scope = scope;
+                this.from = from;
+                this.to = to;
+                this.test = test;
+                this.cancelled = cancelled;
+            }
+            
+            @Override
+            protected List<Note> compute() {
+                List<Note> matches = new ArrayList<>();
+                for (int i = from; i < to && !cancelled.get(); i++) {
+                    Note note = scope != null ? NoteStore.this.get(scope.get(i)) : noteAt(i);
+                    if (test.test(note)) {
+                        matches.add(note);
+                    }
+                }
+                return matches;
+            }
+        }
+        
+        private void fireUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            for (NoteListener listener : listeners) {
+                listener.noteUpdated(note, oldTitle, oldContent, oldCategory, oldModified);
+            }
+        }
+        
+        private void fireContentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            for (NoteListener listener : listeners) {
+                listener.contentInserted(note, offset, text, oldModified);
+            }
+        }
+        
+        private void fireContentUnmapped(Note note, int mappedBytes, int oldChars) {
+            for (NoteListener listener : listeners) {
+                listener.contentUnmapped(note, mappedBytes, oldChars);
+            }
+        }
+    }
+    
+    /**
+     * Durable record of changes to notes, appended to as notes change
+     * Implemented by the journal and by segmented storage; the auto-saver writes
+     * its batches through this interface.
+     */
+    interface ChangeLog extends NoteListener {
+        void appendNote(Note note);
+        void appendRemove(int id);
+        void appendInsert(ContentInsert insert);
+        void sync() throws IOException;
+        void close() throws IOException;
+    }
+    
+    /**
+     * Text inserted into a note's content, as recorded in the journal and in segments
+     * Holds the length of the content before the insert, so replaying it is safe
+     * even on a snapshot that already has it: the note no longer has that length.
+     */
+    static final class ContentInsert {
+        final int id;
+        final int oldLength;
+        final int offset;
+        final String text;
+        final LocalDateTime modified;
+        
+        ContentInsert(int id, int oldLength, int offset, String text, LocalDateTime modified) {
+            this.id = id;
+            this.oldLength = oldLength;
+            this.offset = offset;
+            this.text = text;
+            this.modified = modified;
+        }
+        
+        /**
+         * The insert a listener was just told about
+         */
+        static ContentInsert of(Note note, int offset, CharSequence text) {
+            return new ContentInsert(note.getId(), note.contentText().length() - text.length(), offset,
+                    text.toString(), note.getModifiedDate());
+        }
+        
+        /**
+         * Insert into the note if it still has the content the insert was made to
+         * Returns false if the note is missing or has already had the insert.
+         */
+        boolean applyTo(Note note) {
+            if (note == null || note.contentText().length() != oldLength) {
+                return false;
+            }
+            note.insertContent(offset, text, modified);
+            return true;
+        }
+    }
+    
+    /**
+     * Append-only write-ahead journal of note changes
+     * Every create, edit and delete is appended as one record, so saving never
+     * rewrites the whole data file. Records are framed as [length][CRC32][payload]
+     * so a record torn by a crash is detected and dropped on replay. The journal
+     * is fsynced in batches and folded into a snapshot of DATA_FILE by compaction.
+     * The payload is an operation byte followed by a NoteCodec record, a note ID,
+     * or an insert into a note's content (only the inserted text is written).
+     * File Handling, Exception Handling
+     */
+    static class NoteJournal implements ChangeLog {
+        private static final int SYNC_BATCH = 32;
+        private static final long MIN_COMPACT_BYTES = 1 << 20;
+        private static final int MAX_RECORD_BYTES = 1 << 30;
+        
+        private static final byte OP_PUT = 'P';
+        private static final byte OP_REMOVE = 'R';
+        private static final byte OP_INSERT = 'I';
+        
+        // Journals written before the binary format held text payloads
+        private static final byte OP_TEXT_CREATE = 'C';
+        private static final byte OP_TEXT_UPDATE = 'U';
+        private static final byte OP_TEXT_DELETE = 'D';
+        
+        private final Path path;
+        private final NoteCodec codec = new NoteCodec();
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private FileChannel channel;
+        private long size = 0;
+        private int unsynced = 0;
+        
+        public NoteJournal(Path path) {
+            this.path = path;
+        }
+        
+        /**
+         * Apply every intact journal record to the store, then open the journal for appending
+         * Returns the number of records replayed.
+         */
+        public int replay(NoteStore store) throws IOException {
+            close();
+            long validBytes = 0;
+            int replayed = 0;
+            
+            if (Files.exists(path)) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(path)))) {
+                    CRC32 crc = new CRC32();
+                    while (true) {
+                        int length;
+                        long checksum;
+                        byte[] payload;
+                        try {
+                            length = in.readInt();
+                            checksum = in.readInt() & 0xFFFFFFFFL;
+                            if (length < 1 || length > MAX_RECORD_BYTES) {
+                                break;
+                            }
+                            payload = new byte[length];
+                            in.readFully(payload);
+                        } catch (EOFException e) {
+                            break; // Clean end, or a record torn by a crash
+                        }
+                        
+                        crc.reset();
+                        crc.update(payload);
+                        if (crc.getValue() != checksum) {
+                            break;
+                        }
+                        apply(store, payload);
+                        validBytes += 8 + length;
+                        replayed++;
+                    }
+                }
+            }
+            
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drop a torn tail so new records follow the last intact one
+            channel.truncate(validBytes);
+            channel.position(validBytes);
+            size = validBytes;
+            return replayed;
+        }
+        
+        private static void apply(NoteStore store, byte[] payload) {
+            ByteBuffer data = ByteBuffer.wrap(payload, 1, payload.length - 1);
+            switch (payload[0]) {
+                case OP_PUT:
+                    put(store, NoteCodec.decode(data, false));
+                    break;
+                case OP_REMOVE:
+                    store.remove(data.getInt());
+                    break;
+                case OP_INSERT: {
+                    ContentInsert insert = NoteCodec.decodeInsert(data);
+                    insert.applyTo(store.get(insert.id));
+                    break;
+                }
+                case OP_TEXT_CREATE:
+                case OP_TEXT_UPDATE:
+                    Note note = Note.fromFileFormat(new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8));
+                    if (note != null) {
+                        put(store, note);
+                    }
+                    break;
+                case OP_TEXT_DELETE:
+                    store.remove(Integer.parseInt(new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8)));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record: " + (char) payload[0]);
+            }
+        }
+        
+        private static void put(NoteStore store, Note note) {
+            // Replaying after a compaction that already holds this note is harmless
+            Note existing = store.get(note.getId());
+            if (existing != null) {
+                existing.restoreFrom(note);
+            } else {
+                store.add(note);
+            }
+        }
+        
+        public boolean isOpen() {
+            return channel != null;
+        }
+        
+        /**
+         * Size of the journal in bytes
+         */
+        public long size() {
+            return size;
+        }
+        
+        /**
+         * Check if the journal has grown enough, relative to the snapshot, to be compacted
+         */
+        public boolean needsCompaction(long snapshotBytes) {
+            return size > Math.max(MIN_COMPACT_BYTES, snapshotBytes / 4);
+        }
+        
+        /**
+         * Force all appended records to disk
+         */
+        @Override
+        public void sync() throws IOException {
+            if (channel != null && unsynced > 0) {
+                channel.force(false);
+                unsynced = 0;
+            }
+        }
+        
+        /**
+         * Empty the journal once its records are contained in a new snapshot
+         */
+        public void reset() throws IOException {
+            if (channel != null) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+            }
+            size = 0;
+            unsynced = 0;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                sync();
+                channel.close();
+                channel = null;
+            }
+        }
+        
+        @Override
+        public void appendNote(Note note) {
+            // Changes made before the journal is opened (loading, replaying) are not recorded
+            if (channel == null) {
+                return;
+            }
+            buffer.clear();
+            buffer.position(9);
+            while (!codec.encode(note, buffer)) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.position(9);
+            }
+            write(OP_PUT);
+        }
+        
+        @Override
+        public void appendRemove(int id) {
+            if (channel == null) {
+                return;
+            }
+            buffer.clear();
+            buffer.position(9);
+            buffer.putInt(id);
+            write(OP_REMOVE);
+        }
+        
+        @Override
+        public void appendInsert(ContentInsert insert) {
+            if (channel == null) {
+                return;
+            }
+            buffer.clear();
+            buffer.position(9);
+            while (!codec.encodeInsert(insert, buffer)) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.position(9);
+            }
+            write(OP_INSERT);
+        }
+        
+        /**
+         * Frame the payload after the 9 header bytes of the buffer and append it
+         */
+        private void write(byte op) {
+            buffer.put(8, op);
+            buffer.flip();
+            buffer.putInt(0, buffer.limit() - 8);
+            
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(8, buffer.limit() - 8));
+            buffer.putInt(4, (int) crc.getValue());
+            
+            try {
+                int recordBytes = buffer.limit();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                size += recordBytes;
+                if (++unsynced >= SYNC_BATCH) {
+                    sync();
+                }
+            } catch (IOException e) {
+                dropPartialRecord();
+                throw new UncheckedIOException("Could not write journal: " + e.getMessage(), e);
+            }
+        }
+        
+        /**
+         * Cut off the part of a record a failed write left behind, so a retry follows the last whole record
+         * Otherwise replay would stop at the fragment and drop every record after it.
+         */
+        private void dropPartialRecord() {
+            try {
+                channel.truncate(size);
+                channel.position(size);
+            } catch (IOException e) {
+                // Replay still drops the fragment, along with anything after it
+            }
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            appendNote(note);
+        }
+        
+        @Override
+        public void noteRemoved(Note note) {
+            appendRemove(note.getId());
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            appendNote(note);
+        }
+        
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            appendInsert(ContentInsert.of(note, offset, text));
+        }
+        
+        @Override
+        public void notesCleared() {
+            // Only happens while loading, before the journal is opened
+        }
+    }
+    
+    /**
+     * Note storage split into one segment file per category
+     * A segment is a small header followed by journal-style records (a note, the
+     * removal of one, or text inserted into one), so a change only appends to the segment of the note's
+     * category, and each segment is synced on its own. A session may load only some
+     * categories: the other segments are not read, and notes created in them are
+     * just appended. The header holds the highest note ID in the segment, so new
+     * IDs stay unique without reading the records.
+     * Once edits and deletes have left a segment with more outdated records than
+     * live notes, a background thread rewrites it with the latest record of each note.
+     * A note moved to another category is written to its new segment as a move
+     * record, which holds a sequence number that only grows (at least the time in
+     * milliseconds), so a copy left in the old segment by a crash loses even when
+     * both copies were modified in the same second.
+     * File Handling, Enums, Exception Handling
+     */
+    static class SegmentedLog implements ChangeLog {
+        private static final int MAGIC = 0x4E534547; // "NSEG"
+        private static final byte VERSION = 2; // Version 1 had no move records
+        private static final int VERSION_OFFSET = 4;
+        private static final int HEADER_BYTES = 4 + 1 + 1 + 4; // Magic, version, category, highest ID
+        private static final int MAX_ID_OFFSET = 6;
+        private static final int MAX_RECORD_BYTES = 1 << 30;
+        private static final int MIN_COMPACT_RECORDS = 1024;
+        private static final NoteCategory[] CATEGORIES = NoteCategory.values();
+        
+        private static final byte OP_PUT = 'P';
+        private static final byte OP_MOVE = 'M'; // A sequence number, then the note as in OP_PUT
+        private static final byte OP_REMOVE = 'R';
+        private static final byte OP_INSERT = 'I';
+        
+        /**
+         * The segment file of one category
+         */
+        private static final class Segment {
+            final NoteCategory category;
+            final Path path;
+            final boolean loaded;
+            // Notes whose latest record is in this segment; only complete if loaded
+            IdSet ids = new IdSet();
+            // Guarded by this segment
+            FileChannel channel;
+            long size;
+            long records;
+            int maxId;
+            boolean unsynced;
+            boolean compacting;
+            
+            Segment(NoteCategory category, Path path, boolean loaded) {
+                this.category = category;
+                this.path = path;
+                this.loaded = loaded;
+            }
+            
+            long deadRecords() {
+                return records - ids.size();
+            }
+        }
+        
+        private final Path directory;
+        private final Segment[] segments = new Segment[CATEGORIES.length];
+        private final NoteCodec codec = new NoteCodec();
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "notes-segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private volatile IOException compactionFailure;
+        private boolean open = false;
+        private long lastMoveSequence = 0;
+        // While loading: the sequence number of each loaded note that was last written by a move
+        private Map<Integer, Long> moveSequences;
+        
+        /**
+         * Segments in a folder; only the given categories are loaded (all if null)
+         */
+        public SegmentedLog(Path directory, Set<NoteCategory> categories) {
+            this.directory = directory;
+            for (NoteCategory category : CATEGORIES) {
+                segments[category.ordinal()] = new Segment(category,
+                        directory.resolve(category.name().toLowerCase(Locale.ROOT) + ".seg"),
+                        categories == null || categories.contains(category));
+            }
+        }
+        
+        public boolean exists() {
+            return Files.isDirectory(directory);
+        }
+        
+        public boolean isLoaded(NoteCategory category) {
+            return segments[category.ordinal()].loaded;
+        }
+        
+        /**
+         * Check if every category is loaded, so a note missing from the store has been deleted
+         */
+        public boolean loadsAll() {
+            for (Segment segment : segments) {
+                if (!segment.loaded) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Add the notes of the loaded segments to the store and open every segment for appending
+         * Returns the damaged records that were dropped, as "file: message".
+         */
+        public synchronized List<String> load(NoteStore store) throws IOException {
+            Files.createDirectories(directory);
+            open = false;
+            List<String> errors = new ArrayList<>();
+            int maxId = 0;
+            moveSequences = new HashMap<>();
+            try {
+                for (Segment segment : segments) {
+                    openSegment(segment);
+                    maxId = Math.max(maxId, segment.maxId);
+                    if (segment.loaded) {
+                        readSegment(segment, store, errors);
+                    }
+                }
+            } finally {
+                moveSequences = null;
+            }
+            dropStaleCopies(store);
+            store.reserveIds(maxId);
+            open = true;
+            return errors;
+        }
+        
+        /**
+         * Write every note of the store to fresh segments, e.g. when moving from the single data file
+         */
+        public synchronized void writeAll(NoteStore store) throws IOException {
+            Files.createDirectories(directory);
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.path);
+                openSegment(segment);
+            }
+            open = true;
+            for (int i = 0; i < store.size(); i++) {
+                appendNote(store.noteAt(i));
+            }
+            sync();
+        }
+        
+        private void openSegment(Segment segment) throws IOException {
+            if (segment.channel != null) {
+                segment.channel.close();
+            }
+            segment.ids = new IdSet();
+            FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (channel.size() < HEADER_BYTES) {
+                header.putInt(MAGIC).put(VERSION).put((byte) segment.category.ordinal()).putInt(0).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                segment.maxId = 0;
+            } else {
+                channel.read(header, 0);
+                header.flip();
+                byte version;
+                if (header.getInt() != MAGIC || (version = header.get()) > VERSION) {
+                    channel.close();
+                    throw new IOException(segment.path + " is not a segment file");
+                }
+                if (version < VERSION) {
+                    // Older records read the same; the version keeps older releases from misreading move records
+                    channel.write(ByteBuffer.wrap(new byte[] {VERSION}), VERSION_OFFSET);
+                }
+                header.get(); // Category, which is also in the file name
+                segment.maxId = header.getInt();
+            }
+            segment.channel = channel;
+            segment.size = Math.max(channel.size(), HEADER_BYTES);
+            segment.records = 0;
+            channel.position(segment.size);
+        }
+        
+        private void readSegment(Segment segment, NoteStore store, List<String> errors) throws IOException {
+            long validBytes = HEADER_BYTES;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(segment.path)))) {
+                in.skipNBytes(HEADER_BYTES);
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length;
+                    long checksum;
+                    byte[] payload;
+                    try {
+                        length = in.readInt();
+                        checksum = in.readInt() & 0xFFFFFFFFL;
+                        if (length < 5 || length > MAX_RECORD_BYTES) {
+                            break;
+                        }
+                        payload = new byte[length];
+                        in.readFully(payload);
+                    } catch (EOFException e) {
+                        break; // Clean end, or a record torn by a crash
+                    }
+                    crc.reset();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) {
+                        break;
+                    }
+                    
+                    ByteBuffer data = ByteBuffer.wrap(payload, 1, payload.length - 1);
+                    if (payload[0] == OP_PUT) {
+                        put(segment, store, NoteCodec.decode(data, false), 0);
+                    } else if (payload[0] == OP_MOVE) {
+                        long sequence = data.getLong();
+                        lastMoveSequence = Math.max(lastMoveSequence, sequence);
+                        put(segment, store, NoteCodec.decode(data, false), sequence);
+                    } else if (payload[0] == OP_INSERT) {
+                        ContentInsert insert = NoteCodec.decodeInsert(data);
+                        Note note = store.get(insert.id);
+                        // Not if a newer copy of the note was read from another segment
+                        if (segment.ids.contains(insert.id) && note != null && note.getCategory() == segment.category) {
+                            insert.applyTo(note);
+                        }
+                    } else {
+                        int id = data.getInt();
+                        segment.ids.remove(id);
+                        // A note moved here from a segment read earlier stays
+                        Note note = store.get(id);
+                        if (note != null && note.getCategory() == segment.category) {
+                            store.remove(id);
+                        }
+                    }
+                    validBytes += 8 + length;
+                    segment.records++;
+                }
+            }
+            if (validBytes < segment.size) {
+                errors.add(segment.path.getFileName() + ": dropped a damaged record at byte " + validBytes);
+                segment.channel.truncate(validBytes);
+            }
+            segment.channel.position(validBytes);
+            segment.size = validBytes;
+        }
+        
+        /**
+         * Load a copy of a note, written by a move with the given sequence number (else 0)
+         */
+        private void put(Segment segment, NoteStore store, Note note, long sequence) {
+            int id = note.getId();
+            segment.ids.add(id);
+            Note existing = store.get(id);
+            if (existing == null) {
+                store.add(note);
+            } else if (existing.getCategory() == segment.category) {
+                existing.restoreFrom(note);
+            } else {
+                // The note moved between categories; the copy moved last wins, else the newer one
+                long existingSequence = moveSequences.getOrDefault(id, 0L);
+                if (sequence < existingSequence || sequence == existingSequence
+                        && !note.getModifiedDate().isAfter(existing.getModifiedDate())) {
+                    return;
+                }
+                existing.restoreFrom(note);
+            }
+            if (sequence > 0) {
+                moveSequences.put(id, sequence);
+            } else {
+                moveSequences.remove(id);
+            }
+        }
+        
+        /**
+         * Remove notes from segments that hold an older copy than another segment
+         * A move writes the note to its new segment before removing it from the old
+         * one, so after a crash between the two a note can be live in both.
+         */
+        private void dropStaleCopies(NoteStore store) {
+            for (Segment segment : segments) {
+                if (!segment.loaded) {
+                    continue;
+                }
+                for (int i = segment.ids.size() - 1; i >= 0; i--) {
+                    int id = segment.ids.get(i);
+                    Note note = store.get(id);
+                    if (note == null || note.getCategory() != segment.category) {
+                        segment.ids.remove(id);
+                        appendId(segment, OP_REMOVE, id);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public synchronized void appendNote(Note note) {
+            if (!open) {
+                return; // Loading
+            }
+            // Write the new copy before removing the old one, so a crash never loses the note
+            Segment target = segments[note.getCategory().ordinal()];
+            boolean moved = false;
+            for (Segment segment : segments) {
+                moved |= segment != target && segment.ids.contains(note.getId());
+            }
+            long sequence = moved ? nextMoveSequence() : 0;
+            while (!encode(note, sequence, buffer)) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+            append(target, moved ? OP_MOVE : OP_PUT, note.getId());
+            target.ids.add(note.getId());
+            for (Segment segment : segments) {
+                if (segment != target && segment.ids.remove(note.getId())) {
+                    appendId(segment, OP_REMOVE, note.getId());
+                }
+            }
+        }
+        
+        private long nextMoveSequence() {
+            lastMoveSequence = Math.max(lastMoveSequence + 1, System.currentTimeMillis());
+            return lastMoveSequence;
+        }
+        
+        /**
+         * Put a note after the 9 header bytes of a record, after its move sequence number unless that is 0
+         * Returns false if it does not fit.
+         */
+        private boolean encode(Note note, long sequence, ByteBuffer target) {
+            target.clear();
+            target.position(9);
+            if (sequence > 0) {
+                target.putLong(sequence);
+            }
+            return codec.encode(note, target);
+        }
+        
+        @Override
+        public synchronized void appendRemove(int id) {
+            if (!open) {
+                return;
+            }
+            for (Segment segment : segments) {
+                if (segment.ids.remove(id)) {
+                    appendId(segment, OP_REMOVE, id);
+                }
+            }
+        }
+        
+        /**
+         * Append an insert to the segment that holds the note's latest record
+         */
+        @Override
+        public synchronized void appendInsert(ContentInsert insert) {
+            if (!open) {
+                return;
+            }
+            for (Segment segment : segments) {
+                if (segment.ids.contains(insert.id)) {
+                    buffer.clear();
+                    buffer.position(9);
+                    while (!codec.encodeInsert(insert, buffer)) {
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                        buffer.position(9);
+                    }
+                    append(segment, OP_INSERT, insert.id);
+                    return;
+                }
+            }
+        }
+        
+        private void appendId(Segment segment, byte op, int id) {
+            buffer.clear();
+            buffer.position(9);
+            buffer.putInt(id);
+            append(segment, op, id);
+        }
+        
+        /**
+         * Frame the payload after the 9 header bytes of the buffer the same way as the journal
+         */
+        private static void frame(ByteBuffer buffer, byte op) {
+            buffer.put(8, op);
+            buffer.flip();
+            buffer.putInt(0, buffer.limit() - 8);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(8, buffer.limit() - 8));
+            buffer.putInt(4, (int) crc.getValue());
+        }
+        
+        /**
+         * Frame the payload in the buffer and append it to a segment
+         */
+        private void append(Segment segment, byte op, int id) {
+            frame(buffer, op);
+            
+            boolean compact;
+            synchronized (segment) {
+                long start = segment.size;
+                try {
+                    while (buffer.hasRemaining()) {
+                        segment.size += segment.channel.write(buffer);
+                    }
+                    if (id > segment.maxId) {
+                        segment.channel.write(ByteBuffer.allocate(4).putInt(0, id), MAX_ID_OFFSET);
+                        segment.maxId = id;
+                    }
+                } catch (IOException e) {
+                    // As in the journal, drop a partly written record so a retry follows the last whole one
+                    try {
+                        segment.channel.truncate(start);
+                        segment.channel.position(start);
+                    } catch (IOException ignored) {
+                        // Loading stops at the fragment instead
+                    }
+                    segment.size = start;
+                    throw new UncheckedIOException("Could not write " + segment.path.getFileName() + ": " + e.getMessage(), e);
+                }
+                segment.records++;
+                segment.unsynced = true;
+                compact = segment.loaded && !segment.compacting && segment.deadRecords() >= MIN_COMPACT_RECORDS
+                        && segment.deadRecords() > segment.ids.size();
+                if (compact) {
+                    segment.compacting = true;
+                }
+            }
+            if (compact) {
+                compactor.execute(() -> compactInBackground(segment));
+            }
+        }
+        
+        private void compactInBackground(Segment segment) {
+            try {
+                compact(segment);
+            } catch (IOException | UncheckedIOException e) {
+                compactionFailure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+            } finally {
+                synchronized (segment) {
+                    segment.compacting = false;
+                }
+            }
+        }
+        
+        /**
+         * Rewrite a segment with only the latest record of each note in it
+         * Inserts into a note are folded into its record. Reads the file rather than the store,
+         * so it can run while notes change. Records appended meanwhile are copied over at the
+         * end, under the segment's lock.
+         */
+        private void compact(Segment segment) throws IOException {
+            long end;
+            long recordsBefore;
+            synchronized (segment) {
+                end = segment.size;
+                recordsBefore = segment.records;
+            }
+            
+            // First pass: where is the latest record of each note that was not removed, and the inserts after it
+            Map<Integer, long[]> latest = new HashMap<>();
+            Map<Integer, List<long[]>> inserts = new HashMap<>();
+            FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ);
+            FileChannel out = null;
+            try {
+                // [length][CRC32][op][ID, or a NoteCodec record: [record length][ID]...]
+                ByteBuffer header = ByteBuffer.allocate(8 + 1 + 4);
+                ByteBuffer noteId = ByteBuffer.allocate(4);
+                for (long position = HEADER_BYTES; position < end; ) {
+                    header.clear();
+                    readFully(in, header, position);
+                    int length = header.getInt(0);
+                    if (header.get(8) == OP_PUT || header.get(8) == OP_MOVE) {
+                        noteId.clear();
+                        readFully(in, noteId, position + header.capacity() + (header.get(8) == OP_MOVE ? 8 : 0));
+                        latest.put(noteId.getInt(0), new long[] {position, 8 + length});
+                        inserts.remove(noteId.getInt(0));
+                    } else if (header.get(8) == OP_INSERT) {
+                        if (latest.containsKey(header.getInt(9))) {
+                            inserts.computeIfAbsent(header.getInt(9), id -> new ArrayList<>())
+                                    .add(new long[] {position, 8 + length});
+                        }
+                    } else {
+                        latest.remove(header.getInt(9));
+                        inserts.remove(header.getInt(9));
+                    }
+                    position += 8 + length;
+                }
+                
+                // Second pass: copy those records, in file order, into a new file
+                List<Map.Entry<Integer, long[]>> live = new ArrayList<>(latest.entrySet());
+                live.sort(Comparator.comparingLong(record -> record.getValue()[0]));
+                Path temp = segment.path.resolveSibling(segment.path.getFileName() + ".tmp");
+                out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                long written = HEADER_BYTES;
+                NoteCodec folder = new NoteCodec();
+                ByteBuffer folded = ByteBuffer.allocate(64 * 1024);
+                for (Map.Entry<Integer, long[]> record : live) {
+                    List<long[]> noteInserts = inserts.get(record.getKey());
+                    if (noteInserts == null) {
+                        written += copy(in, record.getValue()[0], record.getValue()[1], out, written);
+                        continue;
+                    }
+                    ByteBuffer payload = readPayload(in, record.getValue());
+                    // Keep a move's sequence number, so the folded copy still wins over older ones
+                    long sequence = payload.get(0) == OP_MOVE ? payload.getLong() : 0;
+                    Note note = NoteCodec.decode(payload, false);
+                    for (long[] insert : noteInserts) {
+                        NoteCodec.decodeInsert(readPayload(in, insert)).applyTo(note);
+                    }
+                    folded.clear();
+                    folded.position(9);
+                    if (sequence > 0) {
+                        folded.putLong(sequence);
+                    }
+                    while (!folder.encode(note, folded)) {
+                        folded = ByteBuffer.allocate(folded.capacity() * 2);
+                        folded.position(9);
+                        if (sequence > 0) {
+                            folded.putLong(sequence);
+                        }
+                    }
+                    frame(folded, sequence > 0 ? OP_MOVE : OP_PUT);
+                    while (folded.hasRemaining()) {
+                        written += out.write(folded, written);
+                    }
+                }
+                
+                synchronized (segment) {
+                    // Records appended since the first pass started
+                    written += copy(in, end, segment.size - end, out, written);
+                    ByteBuffer header2 = ByteBuffer.allocate(HEADER_BYTES);
+                    header2.putInt(MAGIC).put(VERSION).put((byte) segment.category.ordinal())
+                            .putInt(segment.maxId).flip();
+                    out.write(header2, 0);
+                    out.force(true);
+                    
+                    // Windows cannot rename over (or from) a file that is still open
+                    out.close();
+                    in.close();
+                    segment.channel.close();
+                    try {
+                        Files.move(temp, segment.path, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                        segment.size = written;
+                        segment.records = live.size() + (segment.records - recordsBefore);
+                        segment.unsynced = false;
+                    } finally {
+                        // Reopened even if the move failed, so appends go on to the old file
+                        segment.channel = FileChannel.open(segment.path, StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+                        segment.channel.position(segment.size);
+                    }
+                }
+            } finally {
+                // Already closed before the rename, unless compaction failed first
+                try {
+                    in.close();
+                } finally {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Read the payload of a record at {position, length}, positioned after its op byte
+         */
+        private static ByteBuffer readPayload(FileChannel in, long[] record) throws IOException {
+            ByteBuffer data = ByteBuffer.allocate((int) record[1] - 8);
+            readFully(in, data, record[0] + 8);
+            data.position(1);
+            return data;
+        }
+        
+        private static long copy(FileChannel in, long position, long count, FileChannel out, long target)
+                throws IOException {
+            long copied = 0;
+            while (copied < count) {
+                copied += in.transferTo(position + copied, count - copied, out.position(target + copied));
+            }
+            return count;
+        }
+        
+        private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Segment record cut short at byte " + position);
+                }
+            }
+        }
+        
+        /**
+         * Rewrite every loaded segment now, waiting until it is done
+         */
+        public void compactAll() throws IOException {
+            for (Segment segment : segments) {
+                if (!segment.loaded) {
+                    continue;
+                }
+                synchronized (segment) {
+                    if (segment.compacting) {
+                        continue;
+                    }
+                    segment.compacting = true;
+                }
+                try {
+                    compact(segment);
+                } finally {
+                    synchronized (segment) {
+                        segment.compacting = false;
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Force the segments written since the last sync to disk
+         * Also reports a background compaction that failed (the segment is then left as it was).
+         */
+        @Override
+        public void sync() throws IOException {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    if (segment.channel != null && segment.unsynced) {
+                        segment.channel.force(false);
+                        segment.unsynced = false;
+                    }
+                }
+            }
+            IOException failure = compactionFailure;
+            if (failure != null) {
+                compactionFailure = null;
+                throw new IOException("Could not compact a segment: " + failure.getMessage(), failure);
+            }
+        }
+        
+        /**
+         * Wait for a running compaction, then sync and close every segment
+         */
+        @Override
+        public void close() throws IOException {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sync();
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    if (segment.channel != null) {
+                        segment.channel.close();
+                        segment.channel = null;
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            appendNote(note);
+        }
+        
+        @Override
+        public void noteRemoved(Note note) {
+            appendRemove(note.getId());
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            appendNote(note);
+        }
+        
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            appendInsert(ContentInsert.of(note, offset, text));
+        }
+        
+        @Override
+        public void notesCleared() {
+            // Only happens while loading, before the segments are open
+        }
+    }
+    
+    /**
+     * Edit history of note content, kept as deltas in an append-only file
+     * Every content change appends the new version of the note. Most versions are
+     * deltas against the one before (lengths of the unchanged prefix and suffix
+     * plus the new text between them); every CHECKPOINT_INTERVAL versions the full
+     * text is stored instead. Text inserted into a note is stored as a delta at its
+     * offset without reading the rest of the note. After CHECKPOINT_INTERVAL versions,
+     * such deltas are only checkpointed once they add up to the note's length, so
+     * small appends to a large note stay small. They are always checkpointed after
+     * MAX_DELTAS versions. So rebuilding a version reads one checkpoint and at most
+     * CHECKPOINT_INTERVAL - 1 deltas when the note was edited as a whole, and at most
+     * MAX_DELTAS - 1 deltas when text was inserted into it. Only file offsets are
+     * kept in memory; old text is read back from the file when it is asked for.
+     * Records use the journal's [length][CRC32][payload] framing, and the history
+     * of deleted notes is dropped when the file is next opened with every note loaded.
+     * File Handling, Collections
+     */
+    static class NoteHistory implements NoteListener {
+        static final int CHECKPOINT_INTERVAL = 16;
+        static final int MAX_DELTAS = 4 * CHECKPOINT_INTERVAL;
+        private static final long MIN_COMPACT_BYTES = 1 << 20;
+        private static final int MAX_RECORD_BYTES = 1 << 30;
+        
+        private static final byte OP_CHECKPOINT = 'K';
+        private static final byte OP_DELTA = 'D';
+        private static final byte OP_DROP = 'X';
+        
+        // Payload: [op][note ID][version][modified][length][text hash], then the text or delta
+        private static final int HEADER_BYTES = 1 + 4 + 4 + 8 + 4 + 4;
+        
+        /**
+         * One stored version of a note's content, without the text itself
+         */
+        static final class Version {
+            final int number;
+            final LocalDateTime modified;
+            final int length;
+            
+            Version(int number, LocalDateTime modified, int length) {
+                this.number = number;
+                this.modified = modified;
+                this.length = length;
+            }
+        }
+        
+        /**
+         * File offsets of one note's versions, oldest first
+         */
+        private static final class Versions {
+            long[] offsets = new long[4];
+            int count = 0;
+            int sinceCheckpoint = 0;
+            int lastHash; // Hash of the newest version, to notice changes made while not recording
+            long bytes = 0;
+            long bytesSinceCheckpoint = 0;
+            // Set once a version is recorded while open, so the newest version is the note's content
+            boolean current;
+            
+            void add(long offset, int recordBytes, boolean checkpoint, int hash) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = offset;
+                sinceCheckpoint = checkpoint ? 1 : sinceCheckpoint + 1;
+                bytesSinceCheckpoint = checkpoint ? 0 : bytesSinceCheckpoint + recordBytes;
+                lastHash = hash;
+                bytes += recordBytes;
+            }
+        }
+        
+        private final Path path;
+        private final Map<Integer, Versions> versionsById = new HashMap<>();
+        private FileChannel channel;
+        private long size = 0;
+        private boolean dirty = false;
+        
+        public NoteHistory(Path path) {
+            this.path = path;
+        }
+        
+        /**
+         * Index the history file and start recording content changes to the notes of the store
+         * Call after the store is loaded, so loading is not recorded as edits.
+         */
+        public void open(NoteStore store) throws IOException {
+            open(store, true);
+        }
+        
+        /**
+         * Same, but notes missing from the store are only taken as deleted if allLoaded is set
+         * Without it (only some segments loaded), their history is kept.
+         */
+        public synchronized void open(NoteStore store, boolean allLoaded) throws IOException {
+            close();
+            versionsById.clear();
+            long validBytes = 0;
+            
+            if (Files.exists(path)) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(path)))) {
+                    CRC32 crc = new CRC32();
+                    while (true) {
+                        int length;
+                        long checksum;
+                        byte[] payload;
+                        try {
+                            length = in.readInt();
+                            checksum = in.readInt() & 0xFFFFFFFFL;
+                            if (length < HEADER_BYTES || length > MAX_RECORD_BYTES) {
+                                break;
+                            }
+                            payload = new byte[length];
+                            in.readFully(payload);
+                        } catch (EOFException e) {
+                            break; // Clean end, or a record torn by a crash
+                        }
+                        
+                        crc.reset();
+                        crc.update(payload);
+                        if (crc.getValue() != checksum) {
+                            break;
+                        }
+                        ByteBuffer header = ByteBuffer.wrap(payload);
+                        byte op = header.get();
+                        int id = header.getInt();
+                        if (op == OP_DROP) {
+                            versionsById.remove(id);
+                        } else {
+                            header.position(HEADER_BYTES - 4);
+                            versionsById.computeIfAbsent(id, key -> new Versions())
+                                    .add(validBytes, 8 + length, op == OP_CHECKPOINT, header.getInt());
+                        }
+                        validBytes += 8 + length;
+                    }
+                }
+            }
+            
+            // Forget notes deleted while history was not recorded
+            if (allLoaded) {
+                versionsById.keySet().removeIf(id -> store.get(id) == null);
+            }
+            long liveBytes = 0;
+            for (Versions versions : versionsById.values()) {
+                liveBytes += versions.bytes;
+            }
+            
+            if (validBytes - liveBytes > Math.max(MIN_COMPACT_BYTES, liveBytes)) {
+                rewrite();
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                // Drop a torn tail so new records follow the last intact one
+                channel.truncate(validBytes);
+                channel.position(validBytes);
+                size = validBytes;
+            }
+            store.removeListener(this);
+            store.addListener(this);
+        }
+        
+        /**
+         * Copy the records of notes that still exist into a new file and replace the old one
+         */
+        private void rewrite() throws IOException {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            long position = 0;
+            try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+                    FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Versions versions : versionsById.values()) {
+                    for (int i = 0; i < versions.count; i++) {
+                        ByteBuffer record = readRecord(source, versions.offsets[i]);
+                        record.position(0);
+                        versions.offsets[i] = position;
+                        while (record.hasRemaining()) {
+                            position += target.write(record);
+                        }
+                    }
+                }
+                target.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(position);
+            size = position;
+        }
+        
+        public boolean isOpen() {
+            return channel != null;
+        }
+        
+        /**
+         * Size of the history file in bytes
+         */
+        public synchronized long size() {
+            return size;
+        }
+        
+        /**
+         * Stored versions of a note's content, oldest first; empty if it was never edited
+         * The newest version is the current content.
+         */
+        public synchronized List<Version> versions(int id) throws IOException {
+            Versions versions = versionsById.get(id);
+            if (versions == null || channel == null) {
+                return Collections.emptyList();
+            }
+            List<Version> result = new ArrayList<>(versions.count);
+            ByteBuffer header = ByteBuffer.allocate(8 + HEADER_BYTES);
+            for (int i = 0; i < versions.count; i++) {
+                header.clear();
+                readFully(channel, header, versions.offsets[i]);
+                header.position(8 + 1 + 4 + 4);
+                long modified = header.getLong();
+                int length = header.getInt();
+                result.add(new Version(i + 1, LocalDateTime.ofEpochSecond(modified, 0, ZoneOffset.UTC), length));
+            }
+            return result;
+        }
+        
+        /**
+         * Rebuild the text of one version (numbered from 1) from the nearest checkpoint before it
+         */
+        public synchronized String text(int id, int number) throws IOException {
+            Versions versions = versionsById.get(id);
+            if (versions == null || channel == null || number < 1 || number > versions.count) {
+                throw new IllegalArgumentException("No version " + number + " of note " + id);
+            }
+            
+            // Walk back to the checkpoint, then apply the deltas after it in order
+            int start = number - 1;
+            ByteBuffer op = ByteBuffer.allocate(1);
+            while (true) {
+                op.clear();
+                readFully(channel, op, versions.offsets[start] + 8);
+                if (op.get(0) == OP_CHECKPOINT) {
+                    break;
+                }
+                start--;
+            }
+            StringBuilder text = new StringBuilder();
+            for (int i = start; i < number; i++) {
+                ByteBuffer record = readRecord(channel, versions.offsets[i]);
+                record.position(8);
+                byte kind = record.get();
+                record.position(8 + HEADER_BYTES);
+                if (kind == OP_CHECKPOINT) {
+                    text.setLength(0);
+                    text.append(decode(record));
+                } else {
+                    int prefix = record.getInt();
+                    int suffix = record.getInt();
+                    text.replace(prefix, text.length() - suffix, decode(record));
+                }
+            }
+            return text.toString();
+        }
+        
+        private static String decode(ByteBuffer buffer) {
+            return new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        }
+        
+        private static ByteBuffer readRecord(FileChannel source, long offset) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(4);
+            readFully(source, frame, offset);
+            ByteBuffer record = ByteBuffer.allocate(8 + frame.getInt(0));
+            readFully(source, record, offset);
+            return record;
+        }
+        
+        private static void readFully(FileChannel source, ByteBuffer buffer, long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = source.read(buffer, offset + buffer.position());
+                if (read < 0) {
+                    throw new EOFException("History record at " + offset + " is cut short");
+                }
+            }
+            buffer.flip();
+        }
+        
+        /**
+         * Force all appended records to disk
+         */
+        public synchronized void sync() throws IOException {
+            if (channel != null && dirty) {
+                channel.force(false);
+                dirty = false;
+            }
+        }
+        
+        public synchronized void close() throws IOException {
+            if (channel != null) {
+                sync();
+                channel.close();
+                channel = null;
+            }
+        }
+        
+        /**
+         * Append a version of a note: a delta against the previous text, or a checkpoint
+         */
+        private void append(int id, Versions versions, String previous, String text, LocalDateTime modified) {
+            boolean checkpoint = previous == null || versions.sinceCheckpoint >= CHECKPOINT_INTERVAL;
+            int prefix = 0;
+            int suffix = 0;
+            String middle = text;
+            if (!checkpoint) {
+                int max = Math.min(previous.length(), text.length());
+                while (prefix < max && previous.charAt(prefix) == text.charAt(prefix)) {
+                    prefix++;
+                }
+                while (suffix < max - prefix && previous.charAt(previous.length() - 1 - suffix)
+                        == text.charAt(text.length() - 1 - suffix)) {
+                    suffix++;
+                }
+                // Never split a surrogate pair, which UTF-8 cannot encode by halves
+                if (prefix > 0 && Character.isHighSurrogate(text.charAt(prefix - 1))) {
+                    prefix--;
+                }
+                if (suffix > 0 && Character.isLowSurrogate(text.charAt(text.length() - suffix))) {
+                    suffix--;
+                }
+                middle = text.substring(prefix, text.length() - suffix);
+            }
+            appendVersion(id, versions, checkpoint, prefix, suffix, middle, text.length(), text.hashCode(), modified);
+        }
+        
+        /**
+         * Append a version whose text is the previous one with text inserted at an offset
+         * Only the inserted text is read, plus the shorter side of the note around it for the hash.
+         */
+        private void appendInsert(Note note, Versions versions, int offset, CharSequence text) {
+            CharSequence content = note.contentText();
+            if (versions.sinceCheckpoint >= MAX_DELTAS || versions.sinceCheckpoint >= CHECKPOINT_INTERVAL
+                    && versions.bytesSinceCheckpoint >= content.length()) {
+                append(note.getId(), versions, null, content.toString(), note.getModifiedDate());
+                return;
+            }
+            int hash = hashAfterInsert(versions.lastHash, content, offset, text.length());
+            appendVersion(note.getId(), versions, false, offset, content.length() - offset - text.length(),
+                    text.toString(), content.length(), hash, note.getModifiedDate());
+        }
+        
+        /**
+         * String.hashCode of content, given the hash it had before length characters were inserted at offset
+         * Works out the hash of the part before or after the insert, whichever is shorter.
+         */
+        static int hashAfterInsert(int oldHash, CharSequence content, int offset, int length) {
+            int end = offset + length;
+            int after = content.length() - end;
+            int inserted = hash(content, offset, end);
+            int afterHash;
+            if (after <= offset) {
+                afterHash = hash(content, end, content.length());
+            } else {
+                afterHash = oldHash - hash(content, 0, offset) * power(after);
+            }
+            // old = before * 31^after + afterHash; new = before * 31^(length + after) + inserted * 31^after + afterHash
+            return (oldHash - afterHash) * power(length) + inserted * power(after) + afterHash;
+        }
+        
+        private static int hash(CharSequence text, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            return hash;
+        }
+        
+        private static int power(int exponent) {
+            int result = 1;
+            int base = 31;
+            for (int e = exponent; e > 0; e >>= 1) {
+                if ((e & 1) != 0) {
+                    result *= base;
+                }
+                base *= base;
+            }
+            return result;
+        }
+        
+        private void appendVersion(int id, Versions versions, boolean checkpoint, int prefix, int suffix,
+                String middle, int length, int hash, LocalDateTime modified) {
+            byte[] bytes = middle.getBytes(StandardCharsets.UTF_8);
+            int payloadBytes = HEADER_BYTES + (checkpoint ? 0 : 8) + bytes.length;
+            ByteBuffer record = ByteBuffer.allocate(8 + payloadBytes);
+            record.position(8);
+            record.put(checkpoint ? OP_CHECKPOINT : OP_DELTA);
+            record.putInt(id);
+            record.putInt(versions.count);
+            record.putLong(NoteCodec.toEpochSecond(modified));
+            record.putInt(length);
+            record.putInt(hash);
+            if (!checkpoint) {
+                record.putInt(prefix);
+                record.putInt(suffix);
+            }
+            record.put(bytes);
+            long offset = size;
+            write(record);
+            versions.add(offset, record.capacity(), checkpoint, hash);
+            versions.current = true;
+        }
+        
+        private void appendDrop(int id) {
+            ByteBuffer record = ByteBuffer.allocate(8 + HEADER_BYTES);
+            record.position(8);
+            record.put(OP_DROP);
+            record.putInt(id);
+            record.position(record.capacity()); // The rest of the header is unused
+            write(record);
+        }
+        
+        /**
+         * Frame the payload after the 8 header bytes of the buffer and append it
+         */
+        private void write(ByteBuffer record) {
+            record.flip();
+            record.putInt(0, record.limit() - 8);
+            CRC32 crc = new CRC32();
+            crc.update(record.slice(8, record.limit() - 8));
+            record.putInt(4, (int) crc.getValue());
+            try {
+                while (record.hasRemaining()) {
+                    size += channel.write(record);
+                }
+                dirty = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write history: " + e.getMessage(), e);
+            }
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            // A new note has no history until its content is first changed
+        }
+        
+        @Override
+        public synchronized void noteRemoved(Note note) {
+            if (channel != null && versionsById.remove(note.getId()) != null) {
+                appendDrop(note.getId());
+            }
+        }
+        
+        @Override
+        public synchronized void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            String content = note.getContent();
+            if (channel == null || content.equals(oldContent)) {
+                return;
+            }
+            Versions versions = versionsById.computeIfAbsent(note.getId(), key -> new Versions());
+            // The first edit also stores the text before it; so does one after unrecorded changes
+            if (versions.count == 0 || versions.lastHash != oldContent.hashCode()) {
+                append(note.getId(), versions, null, oldContent, oldModified);
+            }
+            append(note.getId(), versions, oldContent, content, note.getModifiedDate());
+        }
+        
+        @Override
+        public synchronized void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            if (channel == null) {
+                return;
+            }
+            Versions versions = versionsById.get(note.getId());
+            // UTF-8 cannot hold half a surrogate pair, so such an insert is stored as a whole version
+            boolean splitsPair = Character.isLowSurrogate(text.charAt(0))
+                    || Character.isHighSurrogate(text.charAt(text.length() - 1));
+            if (versions == null || !versions.current || splitsPair) {
+                // The text before the insert has to be stored first
+                NoteListener.super.contentInserted(note, offset, text, oldModified);
+                return;
+            }
+            appendInsert(note, versions, offset, text);
+        }
+        
+        @Override
+        public synchronized void notesCleared() {
+            // Only happens while loading, before the history is opened
+        }
+    }
+    
+    /**
+     * Persistent storage of a NoteStore: a snapshot file plus the journal of later changes
+     * Holds the file handling behind loading and saving, without any console
+     * input or output, so it can be driven by the menu, batch mode or benchmarks.
+     * File Handling, Exception Handling
+     */
+    static class NoteDatabase {
+        private final NoteStore store;
+        private final Path dataFile;
+        private final NoteJournal journal;
+        private final NoteHistory history; // Null when edit history is not kept
+        private SegmentedLog segments; // Replaces the snapshot and journal once chosen
+        
+        // The snapshot is still in the old text format and is rewritten on the next save
+        private boolean legacySnapshot = false;
+        
+        private AutoSaver autoSaver;
+        
+        public NoteDatabase(NoteStore store, Path dataFile, Path journalFile) {
+            this(store, dataFile, journalFile, null);
+        }
+        
+        /**
+         * Also keep the edit history of note content in historyFile
+         */
+        public NoteDatabase(NoteStore store, Path dataFile, Path journalFile, Path historyFile) {
+            this.store = store;
+            this.dataFile = dataFile;
+            this.journal = new NoteJournal(journalFile);
+            this.history = historyFile != null ? new NoteHistory(historyFile) : null;
+            store.addListener(journal);
+        }
+        
+        public NoteStore store() { return store; }
+        public NoteJournal journal() { return journal; }
+        public NoteHistory history() { return history; }
+        public SegmentedLog segments() { return segments; }
+        
+        /**
+         * Where changes are appended: the segments if they are used, else the journal
+         */
+        public ChangeLog log() {
+            return segments != null ? segments : journal;
+        }
+        
+        /**
+         * Keep notes in one segment file per category in a folder instead (see SegmentedLog)
+         * Only the given categories are loaded, or all if null. Must be chosen before loading.
+         * The first time, the snapshot and journal are read and moved into segments.
+         */
+        public void useSegments(Path directory, Set<NoteCategory> categories) {
+            segments = new SegmentedLog(directory, categories);
+            store.removeListener(journal);
+            store.addListener(segments);
+        }
+        
+        /**
+         * Add the notes of the snapshot file, if there is one, to the store
+         * With lazy set, the file is memory-mapped and note content is decoded on demand.
+         * Returns the malformed records that were skipped, as "line N: message".
+         */
+        public List<String> loadSnapshot(boolean lazy) throws IOException {
+            if (segments != null) {
+                return loadSegments();
+            }
+            if (!Files.exists(dataFile)) {
+                return Collections.emptyList();
+            }
+            legacySnapshot = !NoteCodec.isBinaryFile(dataFile);
+            
+            if (lazy) {
+                // Content stays in the mapped file, so the search index is built on first search
+                store.searchIndex().deferBuild();
+                MappedNoteFile.load(dataFile, store);
+                return Collections.emptyList();
+            }
+            if (!legacySnapshot) {
+                NoteCodec.readFile(dataFile, store);
+                return Collections.emptyList();
+            }
+            ParallelTextLoader loader = new ParallelTextLoader();
+            loader.load(dataFile, store);
+            return loader.errors();
+        }
+        
+        /**
+         * Number of notes in the snapshot file, from its header, or -1 if that is not known
+         * Used to show load progress; the journal may still add or remove notes.
+         */
+        public int expectedNoteCount() {
+            try {
+                if (segments != null || !Files.exists(dataFile) || !NoteCodec.isBinaryFile(dataFile)) {
+                    return -1;
+                }
+                try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(NoteCodec.HEADER_BYTES);
+                    while (header.hasRemaining() && channel.read(header) >= 0) {
+                        // Read the whole header
+                    }
+                    header.flip();
+                    return NoteCodec.readHeader(header);
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        
+        /**
+         * Load the segments, moving the snapshot and journal into them if there are no segments yet
+         * The moved files are renamed with a ".migrated" suffix.
+         */
+        private List<String> loadSegments() throws IOException {
+            Path journalFile = journal.path;
+            if (segments.exists() || (!Files.exists(dataFile) && !Files.exists(journalFile))) {
+                return segments.load(store);
+            }
+            
+            NoteStore all = new NoteStore();
+            all.searchIndex().deferBuild();
+            NoteDatabase old = new NoteDatabase(all, dataFile, journalFile);
+            List<String> errors = old.loadSnapshot(false);
+            old.replayJournal();
+            old.close();
+            segments.writeAll(all);
+            for (Path file : new Path[] {dataFile, journalFile}) {
+                if (Files.exists(file)) {
+                    Files.move(file, file.resolveSibling(file.getFileName() + ".migrated"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            errors = new ArrayList<>(errors);
+            errors.addAll(segments.load(store));
+            return errors;
+        }
+        
+        /**
+         * Replay the journal on top of the loaded snapshot and start journaling changes
+         * Edit history, if kept, is recorded from here on too. Segments have no journal.
+         * Returns the number of changes replayed.
+         */
+        public int replayJournal() throws IOException {
+            int replayed = segments != null ? 0 : journal.replay(store);
+            if (history != null) {
+                history.open(store, segments == null || segments.loadsAll());
+            }
+            return replayed;
+        }
+        
+        /**
+         * Hand journaling and compaction over to a background writer thread
+         * Call after the journal is replayed. From then on, changes to the store
+         * only queue work and never wait for the disk.
+         */
+        public void startAutoSave() {
+            startAutoSave(null);
+        }
+        
+        /**
+         * Same, for a store shared by threads that take the given locks (see StoreLocks)
+         */
+        public void startAutoSave(StoreLocks locks) {
+            if (autoSaver != null) {
+                return;
+            }
+            autoSaver = new AutoSaver(this, locks);
+            store.removeListener(log());
+            store.addListener(autoSaver);
+            autoSaver.start();
+        }
+        
+        /**
+         * Force journaled changes to disk, compacting the journal once it has grown large
+         * With auto-save running, waits until the writer thread has caught up.
+         */
+        public void save() throws IOException {
+            if (history != null) {
+                history.sync();
+            }
+            if (autoSaver != null) {
+                autoSaver.flush();
+                return;
+            }
+            log().sync();
+            if (needsCompaction()) {
+                compact();
+            }
+        }
+        
+        /**
+         * Check if the snapshot should be rewritten rather than adding to the journal
+         */
+        boolean needsCompaction() throws IOException {
+            if (segments != null) {
+                return false; // Segments compact themselves in the background
+            }
+            // Without an open journal the changes only exist in memory
+            return !journal.isOpen() || legacySnapshot
+                    || journal.needsCompaction(Files.exists(dataFile) ? Files.size(dataFile) : 0);
+        }
+        
+        /**
+         * Write all notes to a new snapshot and empty the journal
+         * The snapshot is written to a temporary file and renamed over the old one,
+         * so a crash while saving never leaves a truncated data file behind.
+         */
+        public void compact() throws IOException {
+            if (segments != null) {
+                segments.compactAll();
+                return;
+            }
+            new NoteCodec().writeFile(store, tempFile());
+            replaceSnapshot();
+        }
+        
+        /**
+         * Same as compact(), but from copies of the notes taken earlier
+         * Changes made after the copies were taken must be journaled after this.
+         */
+        void compact(Note[] notes) throws IOException {
+            new NoteCodec().writeFile(notes, tempFile());
+            replaceSnapshot();
+        }
+        
+        private Path tempFile() {
+            return dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+        }
+        
+        private void replaceSnapshot() throws IOException {
+            Files.move(tempFile(), dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.reset();
+            legacySnapshot = false;
+        }
+        
+        /**
+         * Write any pending changes, stop the writer thread and close the journal
+         */
+        public void close() throws IOException {
+            try {
+                if (autoSaver != null) {
+                    autoSaver.close();
+                }
+            } finally {
+                log().close();
+                if (history != null) {
+                    history.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Background writer that journals changes in batches, off the thread editing notes
+     * Each change marks its note dirty by queueing a copy of it; repeated changes to
+     * one note before a write are coalesced into its latest copy. The writer waits
+     * until changes have stopped for a moment (or a few seconds have passed since the
+     * first unwritten one), then appends the batch to the journal and syncs it.
+     * When the journal has grown large, the next change also copies every note,
+     * and the writer replaces the snapshot with them (temp file, then atomic rename).
+     * Taking the copies closes the batch: changes queued before them are journaled
+     * ahead of the new snapshot, and later ones into the emptied journal after it.
+     * When threads share the store through StoreLocks, the writer takes the copies
+     * itself, holding the store's write lock so that no note is copied mid-edit.
+     * Collections, Exception Handling
+     */
+    static class AutoSaver implements NoteListener {
+        private static final long QUIET_NANOS = 1_000_000_000L;
+        private static final long MAX_DELAY_NANOS = 5_000_000_000L;
+        
+        private final NoteDatabase database;
+        private final StoreLocks locks; // Null if only one thread changes the store
+        private final Thread thread;
+        
+        // Guarded by this. A null value marks a removed note.
+        private Map<Integer, Note> dirty = new LinkedHashMap<>();
+        // Text inserted into notes, written after their copy in dirty (if any)
+        private Map<Integer, List<ContentInsert>> inserts = new LinkedHashMap<>();
+        private Note[] snapshot;
+        // The batch closed when the snapshot was taken; dirty and inserts then hold later changes
+        private Map<Integer, Note> beforeSnapshot;
+        private Map<Integer, List<ContentInsert>> insertsBeforeSnapshot;
+        private boolean compactionDue;
+        private long firstChange;
+        private long lastChange;
+        private long changes = 0;
+        private long written = 0;
+        private long flushRequested = 0;
+        private boolean running = true;
+        // The error of the last failed write; cleared only when a write succeeds
+        private IOException failure;
+        private long failures = 0;
+        // Set when a write fails while stopping, so the writer gives up instead of retrying
+        private boolean abandoned;
+        private boolean closed;
+        
+        AutoSaver(NoteDatabase database, StoreLocks locks) {
+            this.database = database;
+            this.locks = locks;
+            this.thread = new Thread(this::run, "notes-autosave");
+            // Daemon, so a forgotten close() cannot keep the JVM alive; the hook still flushes
+            thread.setDaemon(true);
+        }
+        
+        void start() {
+            try {
+                compactionDue = database.needsCompaction();
+            } catch (IOException e) {
+                compactionDue = true;
+            }
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopAtExit, "notes-autosave-shutdown"));
+        }
+        
+        /**
+         * Wait until every change made so far is on disk
+         * A batch whose write failed is retried at once; if that fails too, its error
+         * is thrown (and again by every flush until a write succeeds).
+         */
+        public synchronized void flush() throws IOException {
+            if (compactionDue && locks == null) {
+                takeSnapshot();
+            }
+            long target = changes;
+            long failuresBefore = failures;
+            flushRequested = Math.max(flushRequested, target);
+            notifyAll();
+            try {
+                while (written < target && failures == failuresBefore && thread.isAlive()) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while saving");
+            }
+            if (written < target) {
+                throw unsaved();
+            }
+        }
+        
+        /**
+         * Flush, then stop the writer thread
+         * Throws if any change is still unwritten once the writer has stopped.
+         */
+        public void close() throws IOException {
+            IOException error = null;
+            try {
+                flush();
+            } catch (IOException e) {
+                error = e;
+            }
+            // Stopping makes one last attempt at anything still queued
+            stop();
+            synchronized (this) {
+                closed = true;
+                if (written < changes) {
+                    throw error != null ? error : unsaved();
+                }
+            }
+        }
+        
+        private IOException unsaved() {
+            return failure != null ? failure
+                    : new IOException((changes - written) + " change(s) not saved: auto-save has stopped");
+        }
+        
+        /**
+         * Stop the writer once it has written what is queued (also run at JVM shutdown)
+         */
+        private void stop() {
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Stop at JVM shutdown, where there is no caller left to report a failed write to
+         */
+        private void stopAtExit() {
+            stop();
+            synchronized (this) {
+                // close() has already reported what it could not write
+                if (written < changes && !closed) {
+                    System.out.println("✗ Changes could not be saved: " + unsaved().getMessage());
+                }
+            }
+        }
+        
+        private void run() {
+            while (awaitBatch()) {
+                if (locks != null && isCompactionDue()) {
+                    try {
+                        locks.run(StoreLocks.Access.WRITE_STORE, 0, this::takeSnapshotIfDue);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e); // Copying notes does no I/O
+                    }
+                }
+                
+                Map<Integer, Note> batch;
+                Map<Integer, List<ContentInsert>> batchInserts;
+                Note[] notes;
+                Map<Integer, Note> after;
+                Map<Integer, List<ContentInsert>> afterInserts;
+                long target;
+                synchronized (this) {
+                    notes = snapshot;
+                    if (notes != null) {
+                        batch = beforeSnapshot;
+                        batchInserts = insertsBeforeSnapshot;
+                        after = dirty;
+                        afterInserts = inserts;
+                    } else {
+                        batch = dirty;
+                        batchInserts = inserts;
+                        after = Collections.emptyMap();
+                        afterInserts = Collections.emptyMap();
+                    }
+                    target = changes;
+                    dirty = new LinkedHashMap<>();
+                    inserts = new LinkedHashMap<>();
+                    snapshot = null;
+                    beforeSnapshot = null;
+                    insertsBeforeSnapshot = null;
+                }
+                
+                write(batch, batchInserts, notes, after, afterInserts, target);
+            }
+        }
+        
+        /**
+         * Wait until the queued changes are due to be written
+         * Returns false once the writer should stop.
+         */
+        private synchronized boolean awaitBatch() {
+            try {
+                while (!readyToWrite()) {
+                    if (!running && !hasPending() || abandoned) {
+                        return false;
+                    }
+                    long now = System.nanoTime();
+                    long due = !hasPending() ? 0
+                            : Math.min(lastChange + QUIET_NANOS, firstChange + MAX_DELAY_NANOS) - now;
+                    if (due > 0) {
+                        wait(due / 1_000_000 + 1);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+            return true;
+        }
+        
+        private boolean hasPending() {
+            return !dirty.isEmpty() || !inserts.isEmpty() || snapshot != null;
+        }
+        
+        private boolean readyToWrite() {
+            if (!hasPending() || abandoned) {
+                return false;
+            }
+            long now = System.nanoTime();
+            return !running || flushRequested > written
+                    || now - lastChange >= QUIET_NANOS || now - firstChange >= MAX_DELAY_NANOS;
+        }
+        
+        /**
+         * Journal a batch, then replace the snapshot (if notes is not null) and journal the changes after it
+         */
+        private void write(Map<Integer, Note> batch, Map<Integer, List<ContentInsert>> batchInserts, Note[] notes,
+                Map<Integer, Note> after, Map<Integer, List<ContentInsert>> afterInserts, long target) {
+            ChangeLog log = database.log();
+            try {
+                // Journal the batch even when a snapshot follows, so a crash
+                // before the journal is emptied cannot replay older versions
+                append(log, batch, batchInserts);
+                if (notes != null) {
+                    database.compact(notes);
+                    // Newer than the snapshot, so they go into the journal it emptied
+                    append(log, after, afterInserts);
+                }
+                boolean due = database.needsCompaction();
+                synchronized (this) {
+                    written = target;
+                    compactionDue = due;
+                    failure = null;
+                    notifyAll();
+                }
+            } catch (IOException | UncheckedIOException e) {
+                synchronized (this) {
+                    // Requeue the batch under any newer changes and retry after the next pause
+                    // (inserts already written are skipped on replay, see ContentInsert)
+                    Map<Integer, Note> retry = new LinkedHashMap<>(batch);
+                    Map<Integer, List<ContentInsert>> retryInserts = new LinkedHashMap<>(batchInserts);
+                    merge(retry, retryInserts, after, afterInserts);
+                    if (snapshot != null) {
+                        merge(retry, retryInserts, beforeSnapshot, insertsBeforeSnapshot);
+                        beforeSnapshot = retry;
+                        insertsBeforeSnapshot = retryInserts;
+                    } else {
+                        merge(retry, retryInserts, dirty, inserts);
+                        dirty = retry;
+                        inserts = retryInserts;
+                    }
+                    if (notes != null) {
+                        compactionDue = true;
+                    }
+                    firstChange = lastChange = System.nanoTime();
+                    // Written stays behind, so flushes keep failing until a retry succeeds;
+                    // waiting flushes are answered, and the next retry comes after a pause
+                    flushRequested = written;
+                    failure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+                    failures++;
+                    // Shutting down: retrying would loop forever, so leave the batch unwritten
+                    abandoned = !running;
+                    notifyAll();
+                }
+            }
+        }
+        
+        private static void append(ChangeLog log, Map<Integer, Note> notes, Map<Integer, List<ContentInsert>> noteInserts)
+                throws IOException {
+            for (Map.Entry<Integer, Note> entry : notes.entrySet()) {
+                if (entry.getValue() == null) {
+                    log.appendRemove(entry.getKey());
+                } else {
+                    log.appendNote(entry.getValue());
+                }
+            }
+            for (List<ContentInsert> list : noteInserts.values()) {
+                for (ContentInsert insert : list) {
+                    log.appendInsert(insert);
+                }
+            }
+            log.sync();
+        }
+        
+        /**
+         * Add later changes to a batch; a newer copy of a note replaces the inserts made before it
+         */
+        private static void merge(Map<Integer, Note> notes, Map<Integer, List<ContentInsert>> noteInserts,
+                Map<Integer, Note> later, Map<Integer, List<ContentInsert>> laterInserts) {
+            notes.putAll(later);
+            noteInserts.keySet().removeAll(later.keySet());
+            laterInserts.forEach((id, list) -> noteInserts.computeIfAbsent(id, key -> new ArrayList<>()).addAll(list));
+        }
+        
+        /**
+         * Queue a copy of every note for the writer to make a new snapshot from
+         * Closes the batch, so changes after the copies are journaled after the snapshot.
+         */
+        private void takeSnapshot() {
+            NoteStore store = database.store();
+            Note[] notes = new Note[store.size()];
+            for (int i = 0; i < notes.length; i++) {
+                notes[i] = store.noteAt(i).detachedCopy();
+            }
+            if (snapshot == null) {
+                beforeSnapshot = dirty;
+                insertsBeforeSnapshot = inserts;
+            } else {
+                // The older snapshot is replaced before it was written
+                merge(beforeSnapshot, insertsBeforeSnapshot, dirty, inserts);
+            }
+            dirty = new LinkedHashMap<>();
+            inserts = new LinkedHashMap<>();
+            snapshot = notes;
+            compactionDue = false;
+            markChanged();
+        }
+        
+        private synchronized boolean isCompactionDue() {
+            return compactionDue;
+        }
+        
+        /**
+         * Take the copies for a due snapshot, with the store locked against changes
+         */
+        private synchronized void takeSnapshotIfDue() {
+            if (compactionDue) {
+                takeSnapshot();
+            }
+        }
+        
+        private void markChanged() {
+            long now = System.nanoTime();
+            if (!hasPending()) {
+                firstChange = now;
+            }
+            lastChange = now;
+            changes++;
+            notifyAll();
+        }
+        
+        private synchronized void noteChanged(int id, Note copy) {
+            markChanged();
+            dirty.put(id, copy);
+            inserts.remove(id);
+            // With locks, other notes may be mid-edit, so the writer takes the copies instead
+            if (compactionDue && locks == null) {
+                takeSnapshot();
+            }
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            noteChanged(note.getId(), note.detachedCopy());
+        }
+        
+        @Override
+        public void noteRemoved(Note note) {
+            noteChanged(note.getId(), null);
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            noteChanged(note.getId(), note.detachedCopy());
+        }
+        
+        @Override
+        public synchronized void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            markChanged();
+            inserts.computeIfAbsent(note.getId(), id -> new ArrayList<>()).add(ContentInsert.of(note, offset, text));
+            if (compactionDue && locks == null) {
+                takeSnapshot();
+            }
+        }
+        
+        @Override
+        public void notesCleared() {
+            // Only happens while loading, before auto-save starts
+        }
+    }
+    
+    /**
+     * Sorted set of note IDs backed by a primitive int array
+     * Used as a posting list: IDs are kept in ascending order, so appending a
+     * new (highest) ID is O(1) and two sets can be intersected by merging.
+     * Arrays
+     */
+    static class IdSet {
+        private int[] ids;
+        private int size = 0;
+        
+        public IdSet() {
+            this(4);
+        }
+        
+        public IdSet(int capacity) {
+            ids = new int[Math.max(capacity, 1)];
+        }
+        
+        public int size() { return size; }
+        public boolean isEmpty() { return size == 0; }
+        
+        /**
+         * Get the i-th smallest ID
+         */
+        public int get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Invalid index: " + index);
+            }
+            return ids[index];
+        }
+        
+        public boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+        
+        public boolean add(int id) {
+            // Fast path: new notes always get the highest ID so far
+            if (size == 0 || id > ids[size - 1]) {
+                ensureCapacity(size + 1);
+                ids[size++] = id;
+                return true;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            ensureCapacity(size + 1);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+            return true;
+        }
+        
+        public boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+        
+        /**
+         * Return a new set with the IDs present in both sets
+         */
+        public IdSet intersect(IdSet other) {
+            IdSet result = new IdSet(Math.min(size, other.size));
+            int i = 0, j = 0;
+            while (i < size && j < other.size) {
+                if (ids[i] < other.ids[j]) {
+                    i++;
+                } else if (ids[i] > other.ids[j]) {
+                    j++;
+                } else {
+                    result.ids[result.size++] = ids[i];
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * Build a set from the first count IDs of an array, in any order
+         */
+        public static IdSet of(int[] ids, int count) {
+            int[] sorted = Arrays.copyOf(ids, count);
+            Arrays.sort(sorted);
+            IdSet result = new IdSet(count);
+            for (int id : sorted) {
+                if (result.size == 0 || result.ids[result.size - 1] != id) {
+                    result.ids[result.size++] = id;
+                }
+            }
+            return result;
+        }
+        
+        public IdSet copy() {
+            IdSet result = new IdSet(size);
+            System.arraycopy(ids, 0, result.ids, 0, size);
+            result.size = size;
+            return result;
+        }
+        
+        private void ensureCapacity(int capacity) {
+            if (capacity > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(capacity, ids.length * 2));
+            }
+        }
+    }
+    
+    /**
+     * Index of note IDs per category
+     * Keeps one sorted ID set per NoteCategory, so listing or counting a category
+     * only touches the notes in it, and the sets can be intersected with search results.
+     * Enums, Collections
+     */
+    static class CategoryIndex implements NoteListener {
+        private final EnumMap<NoteCategory, IdSet> idsByCategory = new EnumMap<>(NoteCategory.class);
+        
+        public CategoryIndex() {
+            notesCleared();
+        }
+        
+        /**
+         * Get a copy of the IDs of the notes in a category
+         * Each category's set is locked on its own, so notes in different
+         * categories can be edited from different threads at the same time.
+         */
+        public IdSet idsIn(NoteCategory category) {
+            IdSet ids = idsByCategory.get(category);
+            synchronized (ids) {
+                return ids.copy();
+            }
+        }
+        
+        public int count(NoteCategory category) {
+            IdSet ids = idsByCategory.get(category);
+            synchronized (ids) {
+                return ids.size();
+            }
+        }
+        
+        private void add(NoteCategory category, int id) {
+            IdSet ids = idsByCategory.get(category);
+            synchronized (ids) {
+                ids.add(id);
+            }
+        }
+        
+        private void remove(NoteCategory category, int id) {
+            IdSet ids = idsByCategory.get(category);
+            synchronized (ids) {
+                ids.remove(id);
+            }
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            add(note.getCategory(), note.getId());
+        }
+        
+        @Override
+        public void noteRemoved(Note note) {
+            remove(note.getCategory(), note.getId());
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            if (oldCategory != note.getCategory()) {
+                remove(oldCategory, note.getId());
+                add(note.getCategory(), note.getId());
+            }
+        }
+        
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            // The category stays the same
+        }
+        
+        @Override
+        public void notesCleared() {
+            for (NoteCategory category : NoteCategory.values()) {
+                idsByCategory.put(category, new IdSet());
+            }
+        }
+    }
+    
+    /**
+     * Index of notes by creation and by modification date
+     * Keeps a sorted array of primitive keys per date, each packing the date in
+     * epoch seconds above the note ID, so a date range or a page of notes in date
+     * order is found with binary searches. Notes created or edited now are the
+     * newest, so their keys are simply appended; keys added out of order (as when
+     * a file is loaded) are sorted once, by the next query.
+     * The IDs are kept in order too: they are handed out as notes are added, so they
+     * give the order added, which the store's own order loses when notes are deleted.
+     * Arrays, Enums
+     */
+    static class DateIndex implements NoteListener {
+        enum Field { CREATED, MODIFIED }
+        
+        private static final int ID_BITS = 31;
+        private static final long ID_MASK = (1L << ID_BITS) - 1;
+        // Dates outside about 1834 to 2106 are clamped so the key cannot overflow
+        private static final long MIN_SECONDS = -(1L << 32);
+        private static final long MAX_SECONDS = (1L << 32) - 1;
+        
+        private final SortedKeys created = new SortedKeys();
+        private final SortedKeys modified = new SortedKeys();
+        private final SortedKeys ids = new SortedKeys();
+        
+        public synchronized int size() {
+            return created.size;
+        }
+        
+        /**
+         * Get up to limit note IDs in the order the notes were added, skipping the first offset
+         */
+        public synchronized int[] pageInOrderAdded(int offset, int limit) {
+            ids.ensureSorted();
+            int count = Math.max(0, Math.min(limit, ids.size - offset));
+            int[] page = new int[count];
+            for (int i = 0; i < count; i++) {
+                page[i] = (int) ids.keys[offset + i];
+            }
+            return page;
+        }
+        
+        /**
+         * Get up to limit note IDs in date order, skipping the first offset
+         */
+        public synchronized int[] page(Field field, boolean newestFirst, int offset, int limit) {
+            SortedKeys keys = keys(field);
+            keys.ensureSorted();
+            int count = Math.max(0, Math.min(limit, keys.size - offset));
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                int position = newestFirst ? keys.size - 1 - offset - i : offset + i;
+                ids[i] = (int) (keys.keys[position] & ID_MASK);
+            }
+            return ids;
+        }
+        
+        /**
+         * Get the IDs of notes dated from (inclusive) to (exclusive), oldest first
+         */
+        public synchronized int[] between(Field field, LocalDateTime from, LocalDateTime to) {
+            SortedKeys keys = keys(field);
+            keys.ensureSorted();
+            int start = keys.lowerBound(key(from, 0));
+            int end = Math.max(start, keys.lowerBound(key(to, 0)));
+            int[] ids = new int[end - start];
+            for (int i = start; i < end; i++) {
+                ids[i - start] = (int) (keys.keys[i] & ID_MASK);
+            }
+            return ids;
+        }
+        
+        /**
+         * Count the notes dated from (inclusive) to (exclusive)
+         */
+        public synchronized int countBetween(Field field, LocalDateTime from, LocalDateTime to) {
+            SortedKeys keys = keys(field);
+            keys.ensureSorted();
+            return Math.max(0, keys.lowerBound(key(to, 0)) - keys.lowerBound(key(from, 0)));
+        }
+        
+        private SortedKeys keys(Field field) {
+            return field == Field.CREATED ? created : modified;
+        }
+        
+        private static long key(LocalDateTime date, int id) {
+            long seconds = Math.max(MIN_SECONDS, Math.min(MAX_SECONDS, NoteCodec.toEpochSecond(date)));
+            return (seconds << ID_BITS) | id;
+        }
+        
+        @Override
+        public synchronized void noteAdded(Note note) {
+            created.add(key(note.getCreatedDate(), note.getId()));
+            modified.add(key(note.getModifiedDate(), note.getId()));
+            ids.add(note.getId());
+        }
+        
+        @Override
+        public synchronized void noteRemoved(Note note) {
+            created.remove(key(note.getCreatedDate(), note.getId()));
+            modified.remove(key(note.getModifiedDate(), note.getId()));
+            ids.remove(note.getId());
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            modifiedChanged(note, oldModified);
+        }
+        
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            modifiedChanged(note, oldModified);
+        }
+        
+        private synchronized void modifiedChanged(Note note, LocalDateTime oldModified) {
+            long oldKey = key(oldModified, note.getId());
+            long newKey = key(note.getModifiedDate(), note.getId());
+            if (oldKey != newKey) {
+                modified.remove(oldKey);
+                modified.add(newKey);
+            }
+        }
+        
+        @Override
+        public synchronized void notesCleared() {
+            created.clear();
+            modified.clear();
+            ids.clear();
+        }
+    }
+    
+    /**
+     * Growable array of primitive keys, kept sorted for binary search
+     * Keys appended in order extend the sorted part. Any other key goes to an
+     * unsorted tail, which is sorted and merged into the rest by the next lookup
+     * that needs every key in order. Lookups that can also scan the tail (see
+     * forEachBetween) leave it alone until it grows past MAX_TAIL keys, so random
+     * keys can be added and looked up without sorting the whole array each time.
+     * Arrays
+     */
+    static final class SortedKeys {
+        private static final int MAX_TAIL = 4096;
+        
+        private long[] keys = new long[16];
+        private int size = 0;
+        private int sortedSize = 0; // keys[0, sortedSize) are in order
+        
+        void add(long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            if (sortedSize == size && (size == 0 || key >= keys[size - 1])) {
+                sortedSize++;
+            }
+            keys[size++] = key;
+        }
+        
+        void remove(long key) {
+            if (size - sortedSize > MAX_TAIL) {
+                ensureSorted();
+            }
+            for (int i = sortedSize; i < size; i++) {
+                if (keys[i] == key) {
+                    keys[i] = keys[--size]; // The tail has no order to keep
+                    return;
+                }
+            }
+            int pos = Arrays.binarySearch(keys, 0, sortedSize, key);
+            if (pos >= 0) {
+                System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+                size--;
+                sortedSize--;
+            }
+        }
+        
+        /**
+         * Pass every key from (inclusive) to (exclusive) to the action, the sorted ones first
+         */
+        void forEachBetween(long from, long to, LongConsumer action) {
+            if (size - sortedSize > MAX_TAIL) {
+                ensureSorted();
+            }
+            for (int i = lowerBound(from); i < sortedSize && keys[i] < to; i++) {
+                action.accept(keys[i]);
+            }
+            for (int i = sortedSize; i < size; i++) {
+                if (keys[i] >= from && keys[i] < to) {
+                    action.accept(keys[i]);
+                }
+            }
+        }
+        
+        /**
+         * Position of the first sorted key that is not less than the given key
+         */
+        int lowerBound(long key) {
+            int pos = Arrays.binarySearch(keys, 0, sortedSize, key);
+            if (pos < 0) {
+                return -pos - 1;
+            }
+            // Keys are unique (they contain the ID), but be exact anyway
+            while (pos > 0 && keys[pos - 1] == key) {
+                pos--;
+            }
+            return pos;
+        }
+        
+        /**
+         * Sort the tail and merge it into the sorted part, from the back so no other array is needed
+         */
+        void ensureSorted() {
+            if (sortedSize == size) {
+                return;
+            }
+            if (sortedSize < (size - sortedSize) * 8) {
+                Arrays.sort(keys, 0, size); // Mostly unsorted, e.g. just loaded
+            } else {
+                long[] tail = Arrays.copyOfRange(keys, sortedSize, size);
+                Arrays.sort(tail);
+                int i = sortedSize - 1;
+                int j = tail.length - 1;
+                for (int k = size - 1; j >= 0; k--) {
+                    keys[k] = i >= 0 && keys[i] > tail[j] ? keys[i--] : tail[j--];
+                }
+            }
+            sortedSize = size;
+        }
+        
+        void clear() {
+            keys = new long[16];
+            size = 0;
+            sortedSize = 0;
+        }
+    }
+    
+    /**
+     * Inverted full-text index over note titles and content
+     * Maps each lower-cased word to the sorted IDs of the notes containing it,
+     * so keyword searches only look at notes that contain every query word.
+     * The map is concurrent and every ID list is locked on its own, so notes can
+     * be edited and searched from several threads without a lock on the whole index.
+     * Indexed words are also listed under each of their trigrams (runs of three
+     * characters), so a query word found inside longer words is looked up in the
+     * words sharing its rarest trigram instead of in every indexed word.
+     * Collections, Regular Expressions
+     */
+    static class SearchIndex implements NoteListener {
+        private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+        private static final int GRAM_LENGTH = 3;
+        // A query word shorter than a trigram found inside more indexed words than this is left to the literal check
+        private static final int MAX_EXPANDED_TERMS = 1024;
+        
+        private final Map<String, IdSet> postings = new ConcurrentHashMap<>();
+        // Trigram to the indexed words containing it; only changed while the word's postings entry is
+        private final Map<String, Set<String>> termsByGram = new ConcurrentHashMap<>();
+        // Words split by an insert, which may be gone from the note but are still in postings
+        private final Map<Integer, Set<String>> staleTerms = new ConcurrentHashMap<>();
+        private volatile boolean built = true;
+        
+        /**
+         * Stop maintaining the index until it is first needed
+         * Used with lazy loading, where indexing would decode every note's content at startup.
+         */
+        public void deferBuild() {
+            postings.clear();
+            termsByGram.clear();
+            staleTerms.clear();
+            built = false;
+        }
+        
+        /**
+         * Build a deferred index from all notes in the store
+         */
+        synchronized void ensureBuilt(NoteStore store) {
+            if (built) {
+                return;
+            }
+            built = true;
+            for (int i = 0; i < store.size(); i++) {
+                noteAdded(store.noteAt(i));
+            }
+        }
+        
+        /**
+         * Check if a query has no regex metacharacters, so it can be answered from the index
+         */
+        public static boolean isPlainKeyword(String query) {
+            for (int i = 0; i < query.length(); i++) {
+                if (REGEX_METACHARACTERS.indexOf(query.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Split text into distinct lower-case words (runs of letters and digits)
+         */
+        public static Set<String> tokenize(String text) {
+            Set<String> terms = new HashSet<>();
+            addTerms(text, terms);
+            return terms;
+        }
+        
+        private static void addTerms(String text, Collection<String> terms) {
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                    start = -1;
+                }
+            }
+        }
+        
+        private static Set<String> termsOf(String title, String content) {
+            Set<String> terms = new HashSet<>();
+            addTerms(title, terms);
+            addTerms(content, terms);
+            return terms;
+        }
+        
+        /**
+         * Find the IDs of the notes that may contain the query, as a substring
+         * A word inside the query has to be a whole word of the note; the first and
+         * last may be the end and the start of a longer word, and a one-word query can
+         * be any part of a word, so those are looked up in every indexed word containing
+         * them. Callers still check the text for the query as typed.
+         * Returns null if no word narrows the search, so the caller has to scan instead.
+         */
+        public IdSet find(String query) {
+            List<String> words = new ArrayList<>();
+            addTerms(query, words);
+            if (words.isEmpty()) {
+                return null;
+            }
+            
+            // Intersect from the rarest word up so intermediate results stay small
+            List<IdSet> lists = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                // A word next to a non-word character of the query starts (or ends) a word in the note too
+                boolean wholeStart = i > 0 || !Character.isLetterOrDigit(query.charAt(0));
+                boolean wholeEnd = i < words.size() - 1 || !Character.isLetterOrDigit(query.charAt(query.length() - 1));
+                IdSet list = wholeStart && wholeEnd ? postings.get(words.get(i))
+                        : idsOfTermsWith(words.get(i), wholeStart, wholeEnd);
+                if (list == null && wholeStart && wholeEnd) {
+                    return new IdSet();
+                }
+                if (list != null) {
+                    lists.add(list);
+                }
+            }
+            if (lists.isEmpty()) {
+                return null;
+            }
+            lists.sort(Comparator.comparingInt(IdSet::size));
+            
+            IdSet result;
+            synchronized (lists.get(0)) {
+                result = lists.get(0).copy();
+            }
+            for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+                IdSet list = lists.get(i);
+                synchronized (list) {
+                    result = result.intersect(list);
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * IDs of the notes with an indexed word that contains a query word
+         * With wholeStart the word has to begin with it, and with wholeEnd end with it.
+         * Returns null if a word shorter than a trigram is in too many indexed words to be worth it.
+         */
+        private IdSet idsOfTermsWith(String word, boolean wholeStart, boolean wholeEnd) {
+            Collection<String> candidates = word.length() < GRAM_LENGTH ? postings.keySet() : rarestGramTerms(word);
+            int[] ids = new int[16];
+            int count = 0;
+            int terms = 0;
+            for (String term : candidates) {
+                if (wholeStart ? !term.startsWith(word) : wholeEnd ? !term.endsWith(word) : !term.contains(word)) {
+                    continue;
+                }
+                if (++terms > MAX_EXPANDED_TERMS && word.length() < GRAM_LENGTH) {
+                    return null;
+                }
+                IdSet list = postings.get(term);
+                if (list == null) {
+                    continue; // Removed since
+                }
+                synchronized (list) {
+                    if (count + list.size() > ids.length) {
+                        ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + list.size()));
+                    }
+                    System.arraycopy(list.ids, 0, ids, count, list.size());
+                    count += list.size();
+                }
+            }
+            return IdSet.of(ids, count);
+        }
+        
+        /**
+         * The indexed words containing the least common trigram of a word, which include every word containing it
+         */
+        private Set<String> rarestGramTerms(String word) {
+            Set<String> rarest = null;
+            for (int i = 0; i + GRAM_LENGTH <= word.length(); i++) {
+                Set<String> terms = termsByGram.get(word.substring(i, i + GRAM_LENGTH));
+                if (terms == null) {
+                    return Collections.emptySet();
+                }
+                if (rarest == null || terms.size() < rarest.size()) {
+                    rarest = terms;
+                }
+            }
+            return rarest;
+        }
+        
+        /**
+         * Number of distinct words in the index
+         */
+        public int termCount() {
+            return postings.size();
+        }
+        
+        @Override
+        public void noteAdded(Note note) {
+            if (!built) {
+                return;
+            }
+            for (String term : termsOf(note.getTitle(), note.getContent())) {
+                addPosting(term, note.getId());
+            }
+        }
+        
+        @Override
+        public void noteRemoved(Note note) {
+            if (!built) {
+                return;
+            }
+            removeTerms(note.getId(), termsOf(note.getTitle(), note.getContent()));
+            Set<String> stale = staleTerms.remove(note.getId());
+            if (stale != null) {
+                removeTerms(note.getId(), stale);
+            }
+        }
+        
+        @Override
+        public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            if (!built || oldTitle.equals(note.getTitle()) && oldContent.equals(note.getContent())) {
+                return;
+            }
+            Set<String> oldTerms = termsOf(oldTitle, oldContent);
+            Set<String> newTerms = termsOf(note.getTitle(), note.getContent());
+            
+            Set<String> removed = new HashSet<>(oldTerms);
+            Set<String> stale = staleTerms.remove(note.getId());
+            if (stale != null) {
+                removed.addAll(stale);
+            }
+            removed.removeAll(newTerms);
+            removeTerms(note.getId(), removed);
+            
+            for (String term : newTerms) {
+                if (!oldTerms.contains(term)) {
+                    addPosting(term, note.getId());
+                }
+            }
+        }
+        
+        /**
+         * Index the words around an insert, reading only the inserted text and the word it landed in
+         * The word the insert split may still be elsewhere in the note, so it stays indexed
+         * (find only narrows the search) and is dropped with the note's other words later.
+         */
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            if (!built) {
+                return;
+            }
+            CharSequence content = note.contentText();
+            int end = offset + text.length();
+            int start = offset;
+            while (start > 0 && Character.isLetterOrDigit(content.charAt(start - 1))) {
+                start--;
+            }
+            int stop = end;
+            while (stop < content.length() && Character.isLetterOrDigit(content.charAt(stop))) {
+                stop++;
+            }
+            StringBuilder window = new StringBuilder(stop - start);
+            for (int i = start; i < stop; i++) {
+                window.append(content.charAt(i));
+            }
+            Set<String> terms = tokenize(window.toString());
+            for (String term : terms) {
+                addPosting(term, note.getId());
+            }
+            
+            if (start < offset && end < stop) {
+                String split = (window.substring(0, offset - start) + window.substring(end - start))
+                        .toLowerCase(Locale.ROOT);
+                if (!terms.contains(split)) {
+                    staleTerms.computeIfAbsent(note.getId(), id -> ConcurrentHashMap.newKeySet()).add(split);
+                }
+            }
+        }
+        
+        @Override
+        public void notesCleared() {
+            postings.clear();
+            termsByGram.clear();
+            staleTerms.clear();
+        }
+        
+        private void addPosting(String term, int id) {
+            // Fast path: a list is only ever empty once it has been dropped from the map
+            IdSet list = postings.get(term);
+            if (list != null) {
+                synchronized (list) {
+                    if (!list.isEmpty()) {
+                        list.add(id);
+                        return;
+                    }
+                }
+            }
+            postings.compute(term, (t, existing) -> {
+                IdSet ids = existing;
+                if (ids == null) {
+                    ids = new IdSet();
+                    forEachGram(term, gram -> termsByGram.compute(gram, (g, gramTerms) -> {
+                        Set<String> result = gramTerms != null ? gramTerms : ConcurrentHashMap.newKeySet();
+                        result.add(term);
+                        return result;
+                    }));
+                }
+                synchronized (ids) {
+                    ids.add(id);
+                }
+                return ids;
+            });
+        }
+        
+        private void removeTerms(int id, Set<String> terms) {
+            for (String term : terms) {
+                postings.computeIfPresent(term, (t, list) -> {
+                    synchronized (list) {
+                        list.remove(id);
+                        if (!list.isEmpty()) {
+                            return list;
+                        }
+                    }
+                    forEachGram(term, gram -> termsByGram.computeIfPresent(gram, (g, gramTerms) -> {
+                        gramTerms.remove(term);
+                        return gramTerms.isEmpty() ? null : gramTerms;
+                    }));
+                    return null;
+                });
+            }
+        }
+        
+        private static void forEachGram(String term, Consumer<String> action) {
+            for (int i = 0; i + GRAM_LENGTH <= term.length(); i++) {
+                action.accept(term.substring(i, i + GRAM_LENGTH));
+            }
+        }
+    }
+    
+    /**
+     * Trie of the words in note titles, for finding a note by typing part of its title
+     * Each lower-case title word is a path in the trie, and the node where it ends
+     * holds the IDs of the notes with that word in their title. A query word matches
+     * title words it is a prefix of, or fuzzily, within a small edit distance: the
+     * trie is walked with one row of the Levenshtein table per node, and branches
+     * that can no longer come within the distance are skipped.
+     * Like the search index, it is only built when it is first used.
+     * Arrays, Collections
+     */
+    static class TitleIndex implements NoteListener {
+        // Candidates collected per query word; ranking is only by match quality and ID
+        private static final int MAX_CANDIDATES = 10_000;
+        
+        private static final int EXACT = 0;
+        private static final int PREFIX = 1;
+        private static final int FUZZY = 2; // Plus the edit distance
+        
+        private static final class Node {
+            char[] labels = new char[0];
+            Node[] children = new Node[0];
+            IdSet ids; // Notes with the word that ends here
+            
+            Node child(char c) {
+                int i = Arrays.binarySearch(labels, c);
+                return i >= 0 ? children[i] : null;
+            }
+            
+            Node addChild(char c) {
+                int i = Arrays.binarySearch(labels, c);
+                if (i >= 0) {
+                    return children[i];
+                }
+                i = -i - 1;
+                char[] newLabels = new char[labels.length + 1];
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(labels, 0, newLabels, 0, i);
+                System.arraycopy(children, 0, newChildren, 0, i);
+                newLabels[i] = c;
+                newChildren[i] = new Node();
+                System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+                System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+                labels = newLabels;
+                children = newChildren;
+                return newChildren[i];
+            }
+            
+            void removeChild(char c) {
+                int i = Arrays.binarySearch(labels, c);
+                char[] newLabels = new char[labels.length - 1];
+                Node[] newChildren = new Node[children.length - 1];
+                System.arraycopy(labels, 0, newLabels, 0, i);
+                System.arraycopy(children, 0, newChildren, 0, i);
+                System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+                System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+                labels = newLabels;
+                children = newChildren;
+            }
+        }
+        
+        private Node root = new Node();
+        private boolean built = false;
+        
+        /**
+         * Index the titles of all notes in the store, if that has not happened yet
+         */
+        synchronized void ensureBuilt(NoteStore store) {
+            if (built) {
+                return;
+            }
+            built = true;
+            for (int i = 0; i < store.size(); i++) {
+                noteAdded(store.noteAt(i));
+            }
+        }
+        
+        /**
+         * IDs of the notes whose titles best match a query, best first
+         * Every query word has to match a title word. Exact words rank first, then
+         * prefixes (the last word is usually still being typed), then fuzzy matches;
+         * equally good matches list the newest note first.
+         */
+        public synchronized int[] suggest(String query, int limit) {
+            Map<Integer, Integer> scores = null;
+            for (String word : SearchIndex.tokenize(query)) {
+                Map<Integer, Integer> matches = match(word);
+                if (scores == null) {
+                    scores = matches;
+                } else {
+                    Map<Integer, Integer> both = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+                        Integer score = matches.get(entry.getKey());
+                        if (score != null) {
+                            both.put(entry.getKey(), entry.getValue() + score);
+                        }
+                    }
+                    scores = both;
+                }
+                if (scores.isEmpty()) {
+                    break;
+                }
+            }
+            if (scores == null) {
+                return new int[0];
+            }
+            
+            List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort(Map.Entry.<Integer, Integer>comparingByValue()
+                    .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())));
+            int[] ids = new int[Math.min(limit, ranked.size())];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ranked.get(i).getKey();
+            }
+            return ids;
+        }
+        
+        /**
+         * Score every note with a title word matching one query word (lower is better)
+         */
+        private Map<Integer, Integer> match(String word) {
+            Map<Integer, Integer> scores = new HashMap<>();
+            Node node = root;
+            for (int i = 0; i < word.length() && node != null; i++) {
+                node = node.child(word.charAt(i));
+            }
+            if (node != null) {
+                collect(node, EXACT, PREFIX, scores);
+            }
+            
+            // Allow one typo from 3 letters, two from 6
+            int maxDistance = word.length() < 3 ? 0 : word.length() < 6 ? 1 : 2;
+            if (maxDistance > 0 && scores.size() < MAX_CANDIDATES) {
+                int[] row = new int[word.length() + 1];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = i;
+                }
+                for (int i = 0; i < root.labels.length; i++) {
+                    matchFuzzy(root.children[i], root.labels[i], word, row, maxDistance, scores);
+                }
+            }
+            return scores;
+        }
+        
+        /**
+         * Extend the Levenshtein table by the letter of this node
+         * Once the whole query is within the distance of the word so far, every
+         * word below this node matches as a fuzzy prefix.
+         */
+        private void matchFuzzy(Node node, char letter, String word, int[] previous, int maxDistance,
+                Map<Integer, Integer> scores) {
+            int[] row = new int[previous.length];
+            row[0] = previous[0] + 1;
+            int best = row[0];
+            for (int i = 1; i < row.length; i++) {
+                int substitute = previous[i - 1] + (word.charAt(i - 1) == letter ? 0 : 1);
+                row[i] = Math.min(substitute, Math.min(previous[i], row[i - 1]) + 1);
+                best = Math.min(best, row[i]);
+            }
+            
+            int distance = row[row.length - 1];
+            if (distance <= maxDistance) {
+                collect(node, FUZZY + distance, FUZZY + distance, scores);
+            } else if (best <= maxDistance) {
+                for (int i = 0; i < node.labels.length && scores.size() < MAX_CANDIDATES; i++) {
+                    matchFuzzy(node.children[i], node.labels[i], word, row, maxDistance, scores);
+                }
+            }
+        }
+        
+        /**
+         * Score the notes of a node, then those below it, breadth first so shorter words come first
+         */
+        private static void collect(Node start, int score, int belowScore, Map<Integer, Integer> scores) {
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(start);
+            while (!queue.isEmpty() && scores.size() < MAX_CANDIDATES) {
+                Node node = queue.poll();
+                int nodeScore = node == start ? score : belowScore;
+                if (node.ids != null) {
+                    for (int i = 0; i < node.ids.size() && scores.size() < MAX_CANDIDATES; i++) {
+                        scores.merge(node.ids.get(i), nodeScore, Math::min);
+                    }
+                }
+                Collections.addAll(queue, node.children);
+            }
+        }
+        
+        private void add(String title, int id) {
+            for (String word : SearchIndex.tokenize(title)) {
+                Node node = root;
+                for (int i = 0; i < word.length(); i++) {
+                    node = node.addChild(word.charAt(i));
+                }
+                if (node.ids == null) {
+                    node.ids = new IdSet(1);
+                }
+                node.ids.add(id);
+            }
+        }
+        
+        private void remove(String title, int id) {
+            for (String word : SearchIndex.tokenize(title)) {
+                Node[] path = new Node[word.length() + 1];
+                path[0] = root;
+                for (int i = 0; i < word.length() && path[i] != null; i++) {
+                    path[i + 1] = path[i].child(word.charAt(i));
+                }
+                Node node = path[word.length()];
+                if (node == null || node.ids == null) {
+                    continue;
+                }
+                node.ids.remove(id);
+                if (node.ids.isEmpty()) {
+                    node.ids = null;
+                }
+                // Prune the branch back to the last node still in use
+                for (int i = word.length(); i > 0 && path[i].ids == null && path[i].labels.length == 0; i--) {
+                    path[i - 1].removeChild(word.charAt(i - 1));
+                }
+            }
+        }
+        
+        @Override
+        public synchronized void noteAdded(Note note) {
+            if (built) {
+                add(note.getTitle(), note.getId());
+            }
+        }
+        
+        @Override
+        public synchronized void noteRemoved(Note note) {
+            if (built) {
+                remove(note.getTitle(), note.getId());
+            }
+        }
+        
+        @Override
+        public synchronized void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            if (built && !oldTitle.equals(note.getTitle())) {
+                remove(oldTitle, note.getId());
+                add(note.getTitle(), note.getId());
+            }
+        }
+        
+        @Override
+        public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            // Only titles are indexed
+        }
+        
+        @Override
+        public synchronized void notesCleared() {
+            root = new Node();
+        }
+    }
+    
+    /**
+     * Finds notes with nearly the same content using MinHash and locality-sensitive hashing
+     * Note content is folded to lower-case words and cut into overlapping
+     * SHINGLE_LENGTH-character shingles. Each shingle is hashed once and sorted
+     * into one of HASHES bins, which keep their smallest hash (one-permutation
+     * MinHash); two notes agree on a bin with a probability equal to the Jaccard
+     * similarity of their shingle sets. The signature is cut into BANDS bands of
+     * ROWS bins; notes that agree on a whole band share a bucket, and only notes
+     * sharing a bucket are compared. Buckets are runs of sorted (band hash, ID)
+     * keys, so finding all clusters costs a sort per band instead of comparing
+     * every pair of notes. Only 16 bits of each minimum are kept (b-bit MinHash),
+     * which hardly changes the estimate. Signatures are computed in parallel the
+     * first time the index is used, or on a background thread after loading (see
+     * buildInBackground), and kept up to date as notes change after that.
+     * Arrays, Collections, Threads
+     */
+    static class DuplicateIndex implements NoteListener {
+        static final double DEFAULT_SIMILARITY = 0.8;
+        
+        private static final int SHINGLE_LENGTH = 5;
+        // 12 bands of 5 make notes 80% alike candidates 99% of the time, and 50% alike 32% of the time
+        private static final int BANDS = 12;
+        private static final int ROWS = 5;
+        private static final int HASHES = BANDS * ROWS;
+        // Larger buckets are compared as a chain rather than pair by pair
+        private static final int MAX_PAIRWISE_BUCKET = 32;
+        private static final int ID_BITS = 31;
+        private static final long ID_MASK = (1L << ID_BITS) - 1;
+        private static final int PARALLEL_THRESHOLD = 4096;
+        // Keeps borrowed bin values apart from the bin's own (see signature)
+        private static final long OFFSET = 0x9E3779B97F4A7C15L;
+        
+        /**
+         * A note and how much of its content it shares with another
+         */
+        static final class Match {
+            final int id;
+            final double similarity;
+            
+            Match(int id, double similarity) {
+                this.id = id;
+                this.similarity = similarity;
+            }
+        }
+        
+        private final Map<Integer, char[]> signatures = new HashMap<>();
+        private final SortedKeys[] buckets = new SortedKeys[BANDS];
+        // Notes with text inserted since they were signed; signed again when the index is next used
+        private IdSet stale = new IdSet();
+        private NoteStore store;
+        // Changes are tracked once built is set; ready once every note is signed
+        private boolean built = false;
+        private volatile boolean ready = false;
+        // Notes changed while a background build signs the notes from before it
+        private IdSet changedWhileBuilding;
+        
+        public DuplicateIndex() {
+            for (int i = 0; i < BANDS; i++) {
+                buckets[i] = new SortedKeys();
+            }
+        }
+        
+        /**
+         * Sign every note in the store, if that has not happened yet
+         */
+        synchronized void ensureBuilt(NoteStore store) {
+            if (built) {
+                // A background build may still be signing
+                try {
+                    while (!ready) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            built = true;
+            this.store = store;
+            Note[] notes = notesOf(store);
+            char[][] signed = new char[notes.length][];
+            ForkJoinPool.commonPool().invoke(new SignTask(notes, signed, 0, signed.length));
+            for (int i = 0; i < signed.length; i++) {
+                add(notes[i].getId(), signed[i]);
+            }
+            ready = true;
+        }
+        
+        /**
+         * Sign every note in the store on a background thread, if that has not happened yet
+         * Call once the store is loaded, from the thread that changes it. The thread signs
+         * detached copies, so it never reads a note while it is edited. Changes made
+         * meanwhile are tracked as usual; the notes they touch are not signed again.
+         * Columnar notes are only copied by decoding all their text, so with columns
+         * the index is left to be built when it is first used.
+         */
+        synchronized void buildInBackground(NoteStore store) {
+            if (built || store.columns() != null) {
+                return;
+            }
+            built = true;
+            this.store = store;
+            changedWhileBuilding = new IdSet();
+            // Cheap for notes with their own fields: the copies share the (unchanging) content
+            Note[] notes = notesOf(store);
+            for (int i = 0; i < notes.length; i++) {
+                notes[i] = notes[i].detachedCopy();
+            }
+            Thread thread = new Thread(() -> {
+                char[][] signed = new char[notes.length][];
+                boolean failed = true;
+                try {
+                    new SignTask(notes, signed, 0, signed.length).invoke();
+                    failed = false;
+                } finally {
+                    synchronized (this) {
+                        for (int i = 0; i < signed.length; i++) {
+                            int id = notes[i].getId();
+                            if (changedWhileBuilding.contains(id)) {
+                                continue;
+                            }
+                            if (signed[i] == null && failed) {
+                                // Left unsigned by the failed build; signed when the index is next used
+                                stale.add(id);
+                            } else {
+                                add(id, signed[i]);
+                            }
+                        }
+                        changedWhileBuilding = null;
+                        ready = true;
+                        notifyAll();
+                    }
+                }
+            }, "notes-duplicate-index");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        /**
+         * Check if every note has been signed, so lookups will not wait for a build
+         */
+        public boolean isReady() {
+            return ready;
+        }
+        
+        private static Note[] notesOf(NoteStore store) {
+            Note[] notes = new Note[store.size()];
+            for (int i = 0; i < notes.length; i++) {
+                notes[i] = store.noteAt(i);
+            }
+            return notes;
+        }
+        
+        private void changed(int id) {
+            if (changedWhileBuilding != null) {
+                changedWhileBuilding.add(id);
+            }
+        }
+        
+        /**
+         * Notes whose content is at least minSimilarity alike to the given note's, most alike first
+         */
+        public synchronized List<Match> similarTo(int id, double minSimilarity) {
+            signStale();
+            char[] signature = signatures.get(id);
+            List<Match> matches = new ArrayList<>();
+            if (signature == null) {
+                return matches;
+            }
+            Set<Integer> seen = new HashSet<>();
+            seen.add(id);
+            for (int band = 0; band < BANDS; band++) {
+                long hash = bandHash(signature, band);
+                buckets[band].forEachBetween(hash << ID_BITS, (hash + 1) << ID_BITS, key -> {
+                    int other = (int) (key & ID_MASK);
+                    if (seen.add(other)) {
+                        double similarity = similarity(signature, signatures.get(other));
+                        if (similarity >= minSimilarity) {
+                            matches.add(new Match(other, similarity));
+                        }
+                    }
+                });
+            }
+            matches.sort(Comparator.comparingDouble((Match match) -> -match.similarity)
+                    .thenComparingInt(match -> match.id));
+            return matches;
+        }
+        
+        /**
+         * Groups of notes that are at least minSimilarity alike, largest group first
+         * A group is linked through pairs of alike notes, so its two ends can
+         * differ by more than the bound. Each group's IDs are in ascending order.
+         */
+        public synchronized List<int[]> clusters(double minSimilarity) {
+            signStale();
+            int[] ids = new int[signatures.size()];
+            int count = 0;
+            for (int id : signatures.keySet()) {
+                ids[count++] = id;
+            }
+            Arrays.sort(ids);
+            int[] parent = new int[ids.length];
+            for (int i = 0; i < parent.length; i++) {
+                parent[i] = i;
+            }
+            
+            for (SortedKeys keys : buckets) {
+                keys.ensureSorted();
+                int start = 0;
+                while (start < keys.size) {
+                    int end = start + 1;
+                    while (end < keys.size && keys.keys[end] >>> ID_BITS == keys.keys[start] >>> ID_BITS) {
+                        end++;
+                    }
+                    for (int i = start + 1; i < end; i++) {
+                        int from = end - start <= MAX_PAIRWISE_BUCKET ? start : i - 1;
+                        for (int j = from; j < i; j++) {
+                            link(ids, parent, keys.keys[i], keys.keys[j], minSimilarity);
+                        }
+                    }
+                    start = end;
+                }
+            }
+            
+            // A root is the first member of its group, so groups are found in ID order
+            Map<Integer, IdSet> groups = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                int root = find(parent, i);
+                if (root != i) {
+                    groups.computeIfAbsent(root, r -> new IdSet()).add(ids[i]);
+                }
+            }
+            List<int[]> clusters = new ArrayList<>();
+            for (Map.Entry<Integer, IdSet> group : groups.entrySet()) {
+                IdSet others = group.getValue();
+                int[] cluster = new int[others.size() + 1];
+                cluster[0] = ids[group.getKey()];
+                for (int i = 0; i < others.size(); i++) {
+                    cluster[i + 1] = others.get(i);
+                }
+                clusters.add(cluster);
+            }
+            clusters.sort(Comparator.comparingInt((int[] cluster) -> -cluster.length)
+                    .thenComparingInt(cluster -> cluster[0]));
+            return clusters;
+        }
+        
+        /**
+         * Join the groups of two notes sharing a bucket if the notes are alike enough
+         */
+        private void link(int[] ids, int[] parent, long keyA, long keyB, double minSimilarity) {
+            int a = Arrays.binarySearch(ids, (int) (keyA & ID_MASK));
+            int b = Arrays.binarySearch(ids, (int) (keyB & ID_MASK));
+            int rootA = find(parent, a);
+            int rootB = find(parent, b);
+            if (rootA != rootB && similarity(signatures.get(ids[a]), signatures.get(ids[b])) >= minSimilarity) {
+                parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+            }
+        }
+        
+        private static int find(int[] parent, int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]]; // Path halving
+                i = parent[i];
+            }
+            return i;
+        }
+        
+        /**
+         * MinHash signature of some text, or null if it has no letters or digits
+         */
+        static char[] signature(CharSequence content) {
+            // Lower-case letters and digits, with one space between words
+            char[] text = new char[content.length()];
+            int length = 0;
+            for (int i = 0; i < content.length(); i++) {
+                char c = content.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    text[length++] = Character.toLowerCase(c);
+                } else if (length > 0 && text[length - 1] != ' ') {
+                    text[length++] = ' ';
+                }
+            }
+            if (length > 0 && text[length - 1] == ' ') {
+                length--;
+            }
+            if (length == 0) {
+                return null;
+            }
+            
+            // One hash per shingle: its high bits pick a bin, and each bin keeps its smallest low bits
+            long[] minimums = new long[HASHES];
+            Arrays.fill(minimums, Long.MAX_VALUE);
+            int shingles = Math.max(1, length - SHINGLE_LENGTH + 1);
+            for (int start = 0; start < shingles; start++) {
+                long shingle = 0;
+                for (int i = start; i < Math.min(length, start + SHINGLE_LENGTH); i++) {
+                    shingle = shingle * 31 + text[i];
+                }
+                long hash = mix(shingle);
+                int bin = (int) (((hash >>> 32) * HASHES) >>> 32);
+                minimums[bin] = Math.min(minimums[bin], hash & 0xFFFFFFFFL);
+            }
+            
+            // Short texts leave bins empty; each borrows from the next filled bin,
+            // told apart by the distance so two notes only agree if they borrowed alike
+            char[] signature = new char[HASHES];
+            for (int k = 0; k < HASHES; k++) {
+                int distance = 0;
+                while (minimums[(k + distance) % HASHES] == Long.MAX_VALUE) {
+                    distance++;
+                }
+                signature[k] = (char) mix(minimums[(k + distance) % HASHES] + distance * OFFSET);
+            }
+            return signature;
+        }
+        
+        /**
+         * Share of the minimums two signatures agree on, which estimates their Jaccard similarity
+         */
+        static double similarity(char[] a, char[] b) {
+            int same = 0;
+            for (int k = 0; k < HASHES; k++) {
+                if (a[k] == b[k]) {
+                    same++;
+                }
+            }
+            return (double) same / HASHES;
+        }
+        
+        /**
+         * 32-bit hash of one band of a signature
+         */
+        private static long bandHash(char[] signature, int band) {
+            long hash = band;
+            for (int k = band * ROWS; k < (band + 1) * ROWS; k++) {
+                hash = hash * 0x10001 + signature[k];
+            }
+            return mix(hash) >>> 32;
+        }
+        
+        /**
+         * Scramble the bits of a 64-bit value (the splitmix64 finalizer)
+         */
+        private static long mix(long x) {
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            return x ^ (x >>> 31);
+        }
+        
+        private void add(int id, char[] signature) {
+            if (signature == null) {
+                return; // Nothing to compare
+            }
+            signatures.put(id, signature);
+            for (int band = 0; band < BANDS; band++) {
+                buckets[band].add(bandHash(signature, band) << ID_BITS | id);
+            }
+        }
+        
+        /**
+         * Sign the notes that had text inserted again, so appending to a note only signs it once per use
+         */
+        private void signStale() {
+            IdSet pending = stale;
+            stale = new IdSet();
+            for (int i = 0; i < pending.size(); i++) {
+                Note note = store.get(pending.get(i));
+                if (note != null) {
+                    remove(note.getId());
+                    add(note.getId(), signature(note.getContent()));
+                }
+            }
+        }
+        
+        private void remove(int id) {
+            stale.remove(id);
+            changed(id);
+            char[] signature = signatures.remove(id);
+            if (signature == null) {
+                return;
+            }
+            for (int band = 0; band < BANDS; band++) {
+                buckets[band].remove(bandHash(signature, band) << ID_BITS | id);
+            }
+        }
+        
+        @Override
+        public synchronized void noteAdded(Note note) {
+            if (built) {
+                add(note.getId(), signature(note.getContent()));
+            }
+        }
+        
+        @Override
+        public synchronized void noteRemoved(Note note) {
+            if (built) {
+                remove(note.getId());
+            }
+        }
+        
+        @Override
+        public synchronized void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                LocalDateTime oldModified) {
+            if (built && !oldContent.equals(note.getContent())) {
+                remove(note.getId());
+                add(note.getId(), signature(note.getContent()));
+            }
+        }
+        
+        @Override
+        public synchronized void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+            if (built) {
+                stale.add(note.getId());
+            }
+        }
+        
+        @Override
+        public synchronized void notesCleared() {
+            stale = new IdSet();
+            signatures.clear();
+            for (SortedKeys keys : buckets) {
+                keys.clear();
+            }
+        }
+        
+        /**
+         * Signs one range of the notes, splitting large ranges across threads
+         */
+        private static final class SignTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            
+            private final transient Note[] notes;
+            private final char[][] signed;
+            private final int from;
+            private final int to;
+            
+            SignTask(Note[] notes, char[][] signed, int from, int to) {
+                this.notes = notes;
+                this.signed = signed;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (to - from <= PARALLEL_THRESHOLD) {
+                    for (int i = from; i < to; i++) {
+                        signed[i] = signature(notes[i].getContent());
+                    }
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                invokeAll(new SignTask(notes, signed, from, middle), new SignTask(notes, signed, middle, to));
+            }
+        }
+    }
+    
+    /**
+     * Main method
+     * Methods/Functions
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> commandArgs = new ArrayList<>();
+        boolean batch = false;
+        int servePort = -1;
+        List<Integer> loadTestArgs = null;
+        Set<NoteCategory> segmentCategories = null;
+        boolean segmented = Files.isDirectory(Paths.get(SEGMENT_DIR));
+        boolean fastStart = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--lazy")) {
+                lazyLoad = true;
+            } else if (arg.equals("--fast-start")) {
+                fastStart = true;
+            } else if (arg.equals("--columnar")) {
+                store.useColumns(false);
+            } else if (arg.equals("--off-heap")) {
+                store.useColumns(true);
+            } else if (arg.equals("--metrics")) {
+                Metrics.enable(store);
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.equals("--serve")) {
+                servePort = NoteServer.DEFAULT_PORT;
+                if (i + 1 < args.length && isNumber(args[i + 1])) {
+                    servePort = Integer.parseInt(args[++i]);
+                }
+            } else if (arg.equals("--segments")) {
+                // --segments [category,...]: store notes per category, loading only the listed ones
+                segmented = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("-") && isCategoryList(args[i + 1])) {
+                    segmentCategories = EnumSet.noneOf(NoteCategory.class);
+                    for (String name : args[++i].split(",")) {
+                        segmentCategories.add(NoteCategory.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                    }
+                }
+            } else if (arg.equals("--load-test")) {
+                loadTestArgs = new ArrayList<>();
+                while (i + 1 < args.length && isNumber(args[i + 1])) {
+                    loadTestArgs.add(Integer.parseInt(args[++i]));
+                }
+            } else {
+                commandArgs.add(arg);
+            }
+        }
+        
+        if (segmented) {
+            database.useSegments(Paths.get(SEGMENT_DIR), segmentCategories);
+        }
+        
+        // Load-test client: --load-test [port] [connections] [seconds]
+        if (loadTestArgs != null) {
+            new LoadTest(loadTestArgs.size() > 0 ? loadTestArgs.get(0) : NoteServer.DEFAULT_PORT,
+                    loadTestArgs.size() > 1 ? loadTestArgs.get(1) : 16,
+                    loadTestArgs.size() > 2 ? loadTestArgs.get(2) : 10).run(System.out);
+            return;
+        }
+        
+        // Server mode: serve the notes to local clients until the process is stopped
+        if (servePort >= 0) {
+            messages = System.err;
+            loadNotesFromFile();
+            StoreLocks locks = new StoreLocks();
+            database.startAutoSave(locks);
+            try (NoteServer server = new NoteServer(store, servePort, locks)) {
+                messages.println("✓ Serving " + store.size() + " note(s) on 127.0.0.1:" + server.port());
+                server.serve();
+            }
+            return;
+        }
+        
+        // Headless mode: run one command from the arguments, or a stream of commands from stdin
+        if (batch || !commandArgs.isEmpty()) {
+            messages = System.err;
+            loadNotesFromFile();
+            boolean ok = new BatchRunner(store, System.out).run(commandArgs, batch ? System.in : null);
+            saveNotesToFile();
+            closeJournal();
+            System.exit(ok ? 0 : 1);
+        }
+        
+        clearScreen();
+        System.out.println("╔════════════════════════════════════════════════════╗");
+        System.out.println("║     WELCOME TO NOTE TAKING APPLICATION             ║");
+        System.out.println("╚════════════════════════════════════════════════════╝");
+        
+        // Load existing notes from file, then write later changes in the background
+        if (fastStart) {
+            // The search index is built on the first search instead of while loading
+            store.searchIndex().deferBuild();
+            startupLoader = new StartupLoader(store, database.expectedNoteCount());
+            messages = startupLoader.messages();
+            startupLoader.start(() -> {
+                loadNotesFromFile();
+                database.startAutoSave();
+                store.buildDuplicateIndexInBackground();
+            });
+        } else {
+            loadNotesFromFile();
+            database.startAutoSave();
+            store.buildDuplicateIndexInBackground();
+            pauseScreen();
+        }
+        
+        boolean running = true;
+        while (running) {
+            try {
+                clearScreen();
+                displayMainMenu();
+                int choice = getIntInput("Enter your choice: ");
+                clearScreen();
+                
+                // Creating a note only needs the store to add it; everything else needs all notes
+                if (choice != 1) {
+                    awaitNotes();
+                }
+                switch (choice) {
+                    case 1:
+                        createNote();
+                        pauseScreen();
+                        break;
+                    case 2:
+                        browseNotes();
+                        pauseScreen();
+                        break;
+                    case 3:
+                        viewNoteDetails();
+                        pauseScreen();
+                        break;
+                    case 4:
+                        editNote();
+                        pauseScreen();
+                        break;
+                    case 5:
+                        deleteNote();
+                        pauseScreen();
+                        break;
+                    case 6:
+                        searchNotes();
+                        pauseScreen();
+                        break;
+                    case 7:
+                        filterByCategory();
+                        pauseScreen();
+                        break;
+                    case 8:
+                        saveNotesToFile();
+                        System.out.println("\n✓ Notes saved successfully!");
+                        pauseScreen();
+                        break;
+                    case 9:
+                        clearScreen();
+                        saveNotesToFile();
+                        closeJournal();
+                        System.out.println("\n✓ Thank you for using Note Taking App!");
+                        running = false;
+                        break;
+                    case 10:
+                        viewStatistics();
+                        pauseScreen();
+                        break;
+                    case 11:
+                        findDuplicates();
+                        pauseScreen();
+                        break;
+                    default:
+                        System.out.println("\n✗ Invalid choice! Please try again.");
+                        pauseScreen();
+                }
+            } catch (Exception e) {
+                System.out.println("\n✗ Error: " + e.getMessage());
+                pauseScreen();
+                scanner.nextLine(); // Clear buffer
+            }
+        }
+        
+        scanner.close();
+    }
+    
+    /**
+     * Loads the notes on a background thread so the menu can be used at once (--fast-start)
+     * Status messages written while loading are held back, so they do not break
+     * into what the user is typing; progress is the number of notes in the store
+     * against the count in the snapshot header, when there is one.
+     * Threads, File Handling
+     */
+    static final class StartupLoader {
+        private static final long PROGRESS_INTERVAL_MILLIS = 250;
+        
+        private final NoteStore store;
+        private final int expected;
+        private final ByteArrayOutputStream held = new ByteArrayOutputStream();
+        private final PrintStream messages = new PrintStream(held, true, StandardCharsets.UTF_8);
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        /**
+         * expected is the number of notes to be loaded, or -1 if it is not known
+         */
+        public StartupLoader(NoteStore store, int expected) {
+            this.store = store;
+            this.expected = expected;
+        }
+        
+        /**
+         * Where the loading task should write its status messages
+         */
+        public PrintStream messages() {
+            return messages;
+        }
+        
+        public void start(Runnable load) {
+            Thread thread = new Thread(() -> {
+                try {
+                    load.run();
+                } catch (RuntimeException e) {
+                    messages.println("✗ Error loading notes: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, "notes-loader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+        
+        public String progress() {
+            int loaded = store.size();
+            if (expected <= 0) {
+                return String.format("Loading notes... %,d so far", loaded);
+            }
+            // Journaled changes can add notes beyond the snapshot's count
+            int percent = (int) Math.min(99, loaded * 100L / expected);
+            return String.format("Loading notes... %d%% (%,d of %,d)", percent, loaded, expected);
+        }
+        
+        /**
+         * Block until loading is done, redrawing the progress line on out meanwhile
+         */
+        public void await(PrintStream out) {
+            try {
+                if (done.await(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                while (true) {
+                    out.print("\r  " + progress() + "   ");
+                    out.flush();
+                    if (done.await(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                }
+                out.println("\r  ✓ Loaded " + String.format("%,d", store.size()) + " note(s)." + " ".repeat(20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        public String heldMessages() {
+            return held.toString(StandardCharsets.UTF_8);
+        }
+    }
+    
+    /**
+     * Case-insensitive substring search using Boyer-Moore-Horspool
+     * The keyword is case-folded once, and the shift table lets the search skip
+     * ahead by up to the keyword's length on a mismatch, instead of trying every
+     * position of the text. Characters share shift entries by their low byte;
+     * a shared entry keeps the smallest shift, so no match can be skipped.
+     * Arrays
+     */
+    static final class LiteralMatcher {
+        private final char[] pattern;
+        private final int[] shift = new int[256];
+        
+        public LiteralMatcher(String literal) {
+            pattern = new char[literal.length()];
+            for (int i = 0; i < pattern.length; i++) {
+                pattern[i] = fold(literal.charAt(i));
+            }
+            Arrays.fill(shift, Math.max(pattern.length, 1));
+            for (int i = 0; i < pattern.length - 1; i++) {
+                shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+            }
+        }
+        
+        /**
+         * Check if the text contains the literal, ignoring case
+         */
+        public boolean matches(CharSequence text) {
+            int last = pattern.length - 1;
+            if (last < 0) {
+                return true;
+            }
+            char lastChar = pattern[last];
+            int i = last;
+            while (i < text.length()) {
+                char c = fold(text.charAt(i));
+                if (c == lastChar) {
+                    int j = last - 1;
+                    int k = i - 1;
+                    while (j >= 0 && fold(text.charAt(k)) == pattern[j]) {
+                        j--;
+                        k--;
+                    }
+                    if (j < 0) {
+                        return true;
+                    }
+                }
+                i += shift[c & 0xFF];
+            }
+            return false;
+        }
+        
+        private static char fold(char c) {
+            if (c < 128) {
+                return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            }
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+    
+    /**
+     * Formats note lists into one reusable buffer that is written once per page
+     * Rows are appended to the same StringBuilder instead of being printed one
+     * by one. The date strings of recently listed notes are kept in a small LRU
+     * cache by note ID and reused for as long as the note's dates are unchanged,
+     * so paging back and forth formats each date once.
+     * Collections, Methods
+     */
+    static final class NoteListRenderer {
+        private static final int DATE_CACHE_SIZE = 1024;
+        
+        private final PrintStream out;
+        private final StringBuilder buffer = new StringBuilder(4096);
+        private final LinkedHashMap<Integer, DateText> dates = new LinkedHashMap<>(16, 0.75f, true);
+        
+        private static final class DateText {
+            final LocalDateTime created;
+            final LocalDateTime modified;
+            final String createdText;
+            final String modifiedText;
+            
+            DateText(LocalDateTime created, LocalDateTime modified) {
+                this.created = created;
+                this.modified = modified;
+                this.createdText = created.format(DISPLAY_DATE_FORMAT);
+                this.modifiedText = modified.format(DISPLAY_DATE_FORMAT);
+            }
+        }
+        
+        public NoteListRenderer(PrintStream out) {
+            this.out = out;
+        }
+        
+        /**
+         * Append "  id. [Category] Title - Created: date", optionally with the modified date
+         */
+        public void row(Note note, boolean showModified) {
+            DateText text = dateText(note);
+            buffer.append("  ").append(note.getId()).append(". [")
+                    .append(note.getCategory().getDisplayName()).append("] ")
+                    .append(note.getTitle()).append(" - Created: ").append(text.createdText);
+            if (showModified) {
+                buffer.append("  (modified ").append(text.modifiedText).append(')');
+            }
+            buffer.append('\n');
+        }
+        
+        public void line(String text) {
+            buffer.append(text).append('\n');
+        }
+        
+        /**
+         * Write everything appended since the last flush
+         */
+        public void flush() {
+            out.print(buffer);
+            out.flush();
+            buffer.setLength(0);
+            if (buffer.capacity() > 64 * 1024) {
+                buffer.trimToSize(); // Let one very long page go
+            }
+        }
+        
+        private DateText dateText(Note note) {
+            LocalDateTime created = note.getCreatedDate();
+            LocalDateTime modified = note.getModifiedDate();
+            DateText text = dates.get(note.getId());
+            if (text == null || !text.created.equals(created) || !text.modified.equals(modified)) {
+                text = new DateText(created, modified);
+                dates.put(note.getId(), text);
+                if (dates.size() > DATE_CACHE_SIZE) {
+                    Iterator<Integer> eldest = dates.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return text;
+        }
+    }
+    
+    /**
+     * Least-recently-used cache of compiled case-insensitive patterns
+     * Regular Expressions, Collections
+     */
+    static final class PatternCache {
+        private final int capacity;
+        private final LinkedHashMap<String, Pattern> patterns = new LinkedHashMap<>(16, 0.75f, true);
+        
+        public PatternCache(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        /**
+         * Get the compiled pattern for a regex, compiling it on a miss
+         */
+        public synchronized Pattern get(String regex) {
+            Pattern pattern = patterns.get(regex);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+                patterns.put(regex, pattern);
+                if (patterns.size() > capacity) {
+                    Iterator<String> eldest = patterns.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return pattern;
+        }
+    }
+    
+    /**
+     * Time limit for one regex search across all the notes it scans
+     * Text is handed to the regex engine through a CharSequence wrapper that
+     * counts character reads and checks the clock every few thousand of them,
+     * so a pattern that backtracks catastrophically is stopped mid-match.
+     * Regular Expressions, Exception Handling
+     */
+    static final class SearchBudget {
+        private static final int CHECK_INTERVAL = 1 << 12;
+        
+        private final long limitMillis;
+        private final long deadline;
+        private int untilCheck = CHECK_INTERVAL;
+        
+        public SearchBudget(long limitMillis) {
+            this.limitMillis = limitMillis;
+            this.deadline = System.nanoTime() + limitMillis * 1_000_000;
+        }
+        
+        /**
+         * A budget with the same deadline, for use by another thread
+         */
+        public SearchBudget(SearchBudget query) {
+            this.limitMillis = query.limitMillis;
+            this.deadline = query.deadline;
+        }
+        
+        public CharSequence wrap(CharSequence text) {
+            return new BudgetedText(text, this);
+        }
+        
+        private void step() {
+            if (--untilCheck == 0) {
+                untilCheck = CHECK_INTERVAL;
+                if (System.nanoTime() - deadline > 0) {
+                    throw new SearchTimeoutException("Search stopped after " + limitMillis
+                            + " ms; the pattern is too expensive. Try a simpler one.");
+                }
+            }
+        }
+        
+        private static final class BudgetedText implements CharSequence {
+            private final CharSequence text;
+            private final SearchBudget budget;
+            
+            BudgetedText(CharSequence text, SearchBudget budget) {
+                this.text = text;
+                this.budget = budget;
+            }
+            
+            @Override
+            public char charAt(int index) {
+                budget.step();
+                return text.charAt(index);
+            }
+            
+            @Override
+            public int length() {
+                return text.length();
+            }
+            
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return new BudgetedText(text.subSequence(start, end), budget);
+            }
+            
+            @Override
+            public String toString() {
+                return text.toString();
+            }
+        }
+    }
+    
+    /**
+     * Thrown when a regex search runs past its time limit
+     */
+    static class SearchTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        public SearchTimeoutException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * Non-interactive command runner for scripted and piped use
+     * Runs commands such as "add", "search" or "delete" against the store, without
+     * clearing the screen or pausing. All output goes through one buffered writer,
+     * one line per result, with note fields separated by tabs.
+     * In server mode there is one runner per client, sharing a StoreLocks.
+     * Methods, Exception Handling
+     */
+    static class BatchRunner {
+        private static final String USAGE = String.join("\n",
+                "Commands:",
+                "  add <title> <content> [category]",
+                "  get <id>",
+                "  edit <id> title|content|category <value>",
+                "  append <id> <content>",
+                "  delete <id>",
+                "  list [created|modified] [oldest] [limit]",
+                "  recent <hours>",
+                "  search <keyword> [category] [limit]",
+                "  filter <category> [keyword]",
+                "  import <file|folder> [data|jsonl|markdown]",
+                "  export <file|folder> [data|jsonl|markdown]",
+                "  save",
+                "  duplicates [percent]",
+                "  stats",
+                "  help",
+                "  quit (server mode)",
+                "Content can be @file to read a file, or - to read standard input",
+                "(when commands are not read from it); start it with @@ for a literal @.");
+        
+        // Ends each response in server mode; no result line can consist of just this
+        static final String END_OF_RESPONSE = ".";
+        private static final int LIST_PAGE_SIZE = 1024;
+        
+        private final NoteStore store;
+        private final PrintWriter out;
+        private final StoreLocks locks;
+        // Set while standard input is not the command stream, so content can be read from it
+        private boolean stdinFree;
+        
+        public BatchRunner(NoteStore store, OutputStream output) {
+            this(store, output, null);
+        }
+        
+        /**
+         * Create a runner whose commands take the given locks (null if it has the store to itself)
+         */
+        public BatchRunner(NoteStore store, OutputStream output, StoreLocks locks) {
+            this.store = store;
+            this.locks = locks;
+            this.out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16), false);
+        }
+        
+        /**
+         * Answer commands from a client until it sends "quit" or disconnects
+         * Every response ends with an END_OF_RESPONSE line and is flushed at once.
+         */
+        public void runSession(InputStream input) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> command = tokenize(line);
+                if (!command.isEmpty() && command.get(0).equalsIgnoreCase("quit")) {
+                    break;
+                }
+                if (!command.isEmpty()) {
+                    execute(command, 0);
+                }
+                out.println(END_OF_RESPONSE);
+                out.flush();
+            }
+        }
+        
+        /**
+         * Run the command in args, then every line of input (if not null)
+         * Returns false if any command failed.
+         */
+        public boolean run(List<String> args, InputStream input) {
+            boolean ok = true;
+            stdinFree = input == null && locks == null;
+            if (!args.isEmpty()) {
+                ok = execute(args, 0);
+            }
+            
+            if (input != null) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+                    String line;
+                    int lineNumber = 0;
+                    while ((line = reader.readLine()) != null) {
+                        lineNumber++;
+                        List<String> command = tokenize(line);
+                        if (!command.isEmpty() && !command.get(0).startsWith("#")) {
+                            ok &= execute(command, lineNumber);
+                        }
+                    }
+                } catch (IOException e) {
+                    out.println("error: could not read commands: " + e.getMessage());
+                    ok = false;
+                }
+            }
+            out.flush();
+            return ok;
+        }
+        
+        private boolean execute(List<String> command, int lineNumber) {
+            try {
+                String name = command.get(0).toLowerCase(Locale.ROOT);
+                List<String> args = command.subList(1, command.size());
+                if (locks == null) {
+                    runCommand(name, args);
+                } else {
+                    locks.run(accessFor(name), args.isEmpty() ? 0 : parseIdOrZero(args.get(0)),
+                            () -> runCommand(name, args));
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                out.println("error: " + (lineNumber > 0 ? "line " + lineNumber + ": " : "") + e.getMessage());
+                return false;
+            }
+        }
+        
+        private void runCommand(String name, List<String> args) throws IOException {
+            switch (name) {
+                case "add": {
+                    requireArgs(args, 2, "add <title> <content> [category]");
+                    NoteCategory category = args.size() > 2 ? parseCategory(args.get(2)) : NoteCategory.PERSONAL;
+                    out.println(store.createNote(new Note(args.get(0), content(args.get(1)), category)));
+                    break;
+                }
+                case "get":
+                    requireArgs(args, 1, "get <id>");
+                    Note note = requireNote(args.get(0));
+                    printNote(note);
+                    out.print('\t');
+                    out.println(escape(note.getContent()));
+                    break;
+                case "edit": {
+                    requireArgs(args, 3, "edit <id> title|content|category <value>");
+                    Note target = requireNote(args.get(0));
+                    String value = args.get(2);
+                    switch (args.get(1).toLowerCase(Locale.ROOT)) {
+                        case "title":
+                            target.setTitle(value);
+                            break;
+                        case "content":
+                            target.setContent(content(value));
+                            break;
+                        case "category":
+                            target.setCategory(parseCategory(value));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown field: " + args.get(1));
+                    }
+                    out.println("ok");
+                    break;
+                }
+                case "append":
+                    requireArgs(args, 2, "append <id> <content>");
+                    requireNote(args.get(0)).appendContent(content(args.get(1)));
+                    out.println("ok");
+                    break;
+                case "delete":
+                    requireArgs(args, 1, "delete <id>");
+                    store.deleteNote(requireNote(args.get(0)).getId());
+                    out.println("ok");
+                    break;
+                case "list":
+                    if (args.isEmpty()) {
+                        // Order added (deletes reorder the store's slots), a page of IDs at a time
+                        int[] ids;
+                        int offset = 0;
+                        do {
+                            ids = store.dateIndex().pageInOrderAdded(offset, LIST_PAGE_SIZE);
+                            printNotes(ids);
+                            offset += ids.length;
+                        } while (ids.length == LIST_PAGE_SIZE);
+                    } else {
+                        // Date order, newest first unless "oldest" is given
+                        DateIndex.Field field = parseDateField(args.get(0));
+                        boolean oldest = args.size() > 1 && args.get(1).equalsIgnoreCase("oldest");
+                        int limit = args.size() > (oldest ? 2 : 1) ? Integer.parseInt(args.get(oldest ? 2 : 1)) : store.size();
+                        printNotes(store.dateIndex().page(field, !oldest, 0, limit));
+                    }
+                    break;
+                case "recent": {
+                    requireArgs(args, 1, "recent <hours>");
+                    LocalDateTime now = LocalDateTime.now();
+                    int[] ids = store.dateIndex().between(DateIndex.Field.MODIFIED,
+                            now.minusHours(Long.parseLong(args.get(0))), now.plusSeconds(1));
+                    for (int i = ids.length - 1; i >= 0; i--) {
+                        printNote(store.get(ids[i]));
+                        out.println();
+                    }
+                    break;
+                }
+                case "search": {
+                    requireArgs(args, 1, "search <keyword> [category] [limit]");
+                    IdSet scope = null;
+                    int limit = 0;
+                    for (String arg : args.subList(1, args.size())) {
+                        if (!arg.isEmpty() && arg.chars().allMatch(Character::isDigit)) {
+                            limit = Integer.parseInt(arg);
+                        } else {
+                            scope = store.categoryIndex().idsIn(parseCategory(arg));
+                        }
+                    }
+                    store.findEach(args.get(0), scope, limit, match -> {
+                        printNote(match);
+                        out.println();
+                        return true;
+                    });
+                    break;
+                }
+                case "filter": {
+                    requireArgs(args, 1, "filter <category> [keyword]");
+                    printNotes(store.filter(parseCategory(args.get(0)), args.size() > 1 ? args.get(1) : null));
+                    break;
+                }
+                case "import": {
+                    requireArgs(args, 1, "import <file|folder> [data|jsonl|markdown]");
+                    Path path = Paths.get(args.get(0));
+                    switch (TransferFormat.of(args.get(0), args.size() > 1 ? args.get(1) : null)) {
+                        case JSONL:
+                            out.println(reportImport(new JsonLinesFile().read(path, store)));
+                            break;
+                        case MARKDOWN:
+                            out.println(reportImport(new MarkdownFolder().read(path, store)));
+                            break;
+                        default:
+                            out.println(importDataFile(path, store));
+                    }
+                    break;
+                }
+                case "export": {
+                    requireArgs(args, 1, "export <file|folder> [data|jsonl|markdown]");
+                    Path path = Paths.get(args.get(0));
+                    switch (TransferFormat.of(args.get(0), args.size() > 1 ? args.get(1) : null)) {
+                        case JSONL:
+                            JsonLinesFile.write(store, path);
+                            break;
+                        case MARKDOWN:
+                            MarkdownFolder.write(store, path);
+                            break;
+                        default:
+                            new NoteCodec().writeFile(store, path);
+                    }
+                    out.println(store.size());
+                    break;
+                }
+                case "save":
+                    saveNotesToFile();
+                    out.println("ok");
+                    break;
+                case "duplicates": {
+                    // One group of alike notes per line, as tab-separated IDs
+                    double minSimilarity = args.isEmpty() ? DuplicateIndex.DEFAULT_SIMILARITY
+                            : Integer.parseInt(args.get(0)) / 100.0;
+                    for (int[] cluster : store.duplicateIndex().clusters(minSimilarity)) {
+                        StringJoiner line = new StringJoiner("\t");
+                        for (int id : cluster) {
+                            line.add(Integer.toString(id));
+                        }
+                        out.println(line);
+                    }
+                    break;
+                }
+                case "stats":
+                    if (!Metrics.isEnabled()) {
+                        throw new IllegalStateException("Metrics are off; run with --metrics");
+                    }
+                    out.print(Metrics.report(store));
+                    break;
+                case "help":
+                    out.println(USAGE);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + name + " (try \"help\")");
+            }
+        }
+        
+        /**
+         * Report skipped records of an import on the message stream and return the count imported
+         */
+        private static int reportImport(ImportResult result) {
+            for (int i = 0; i < Math.min(5, result.errors.size()); i++) {
+                messages.println("✗ Skipped " + result.errors.get(i));
+            }
+            if (result.errors.size() > 5) {
+                messages.println("✗ ... and " + (result.errors.size() - 5) + " more");
+            }
+            return result.imported;
+        }
+        
+        /**
+         * Which locks a command needs when clients share the store
+         */
+        private static StoreLocks.Access accessFor(String name) {
+            switch (name) {
+                case "get":
+                    return StoreLocks.Access.READ_NOTE;
+                case "edit":
+                case "append":
+                    return StoreLocks.Access.WRITE_NOTE;
+                case "list":
+                case "recent":
+                case "search":
+                case "filter":
+                case "duplicates":
+                    return StoreLocks.Access.READ_STORE;
+                case "add":
+                case "delete":
+                case "import":
+                case "export":
+                    return StoreLocks.Access.WRITE_STORE;
+                case "save":
+                    // Only waits for the auto-saver, which may need the store's write lock
+                    return StoreLocks.Access.NONE;
+                default:
+                    return StoreLocks.Access.NONE;
+            }
+        }
+        
+        /**
+         * Content given as an argument, or streamed from a file (@file) or standard input (-)
+         */
+        private CharSequence content(String value) throws IOException {
+            if (value.startsWith("@@")) {
+                return value.substring(1);
+            }
+            if (value.startsWith("@")) {
+                try (Reader reader = Files.newBufferedReader(Paths.get(value.substring(1)), StandardCharsets.UTF_8)) {
+                    return PieceTable.read(reader);
+                } catch (NoSuchFileException e) {
+                    throw new IllegalArgumentException("No such file: " + e.getFile());
+                }
+            }
+            if (value.equals("-")) {
+                if (!stdinFree) {
+                    throw new IllegalArgumentException("Standard input is not available for content here");
+                }
+                // Not closed, so System.in stays open; only one command can read it
+                stdinFree = false;
+                return PieceTable.read(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+            }
+            return value;
+        }
+        
+        private static int parseIdOrZero(String id) {
+            try {
+                return Integer.parseInt(id);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        
+        private void printNotes(IdSet ids) {
+            for (int i = 0; i < ids.size(); i++) {
+                printNote(store.get(ids.get(i)));
+                out.println();
+            }
+        }
+        
+        private void printNotes(int[] ids) {
+            for (int id : ids) {
+                printNote(store.get(id));
+                out.println();
+            }
+        }
+        
+        /**
+         * Print id, category, created, modified and title, tab separated, without a line break
+         */
+        private void printNote(Note note) {
+            if (locks == null) {
+                printFields(note);
+            } else {
+                locks.readNote(note.getId(), () -> printFields(note));
+            }
+        }
+        
+        private void printFields(Note note) {
+            out.print(note.getId());
+            out.print('\t');
+            out.print(note.getCategory().name());
+            out.print('\t');
+            out.print(note.getCreatedDate().format(Note.FILE_DATE_FORMAT));
+            out.print('\t');
+            out.print(note.getModifiedDate().format(Note.FILE_DATE_FORMAT));
+            out.print('\t');
+            out.print(escape(note.getTitle()));
+        }
+        
+        private Note requireNote(String id) {
+            Note note;
+            try {
+                note = store.get(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid note ID: " + id);
+            }
+            if (note == null) {
+                throw new IllegalArgumentException("No note with ID " + id);
+            }
+            return note;
+        }
+        
+        private static void requireArgs(List<String> args, int count, String usage) {
+            if (args.size() < count) {
+                throw new IllegalArgumentException("usage: " + usage);
+            }
+        }
+        
+        private static DateIndex.Field parseDateField(String name) {
+            try {
+                return DateIndex.Field.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown date field: " + name + " (created or modified)");
+            }
+        }
+        
+        private static NoteCategory parseCategory(String name) {
+            try {
+                return NoteCategory.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown category: " + name);
+            }
+        }
+        
+        /**
+         * Escape backslashes, tabs and line breaks so every result stays on one line
+         */
+        static String escape(String text) {
+            StringBuilder sb = null;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+                if (replacement != null && sb == null) {
+                    sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+                }
+                if (sb != null) {
+                    if (replacement != null) {
+                        sb.append(replacement);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            return sb == null ? text : sb.toString();
+        }
+        
+        /**
+         * Split a command line into words
+         * Double quotes group words, and \n, \t, \" and \\ are unescaped.
+         */
+        static List<String> tokenize(String line) {
+            List<String> words = new ArrayList<>();
+            StringBuilder word = new StringBuilder();
+            boolean inWord = false;
+            boolean quoted = false;
+            
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < line.length()) {
+                    char next = line.charAt(++i);
+                    word.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+                    inWord = true;
+                } else if (c == '"') {
+                    quoted = !quoted;
+                    inWord = true;
+                } else if (Character.isWhitespace(c) && !quoted) {
+                    if (inWord) {
+                        words.add(word.toString());
+                        word.setLength(0);
+                        inWord = false;
+                    }
+                } else {
+                    word.append(c);
+                    inWord = true;
+                }
+            }
+            if (inWord) {
+                words.add(word.toString());
+            }
+            return words;
+        }
+    }
+    
+    /**
+     * Add every note of a data file (binary or text format) to the store as new notes
+     * Returns the number of notes imported.
+     * File Handling
+     */
+    private static int importDataFile(Path path, NoteStore target) throws IOException {
+        NoteStore source = new NoteStore();
+        source.searchIndex().deferBuild();
+        if (NoteCodec.isBinaryFile(path)) {
+            NoteCodec.readFile(path, source);
+        } else {
+            ParallelTextLoader loader = new ParallelTextLoader();
+            loader.load(path, source);
+        }
+        
+        List<Note> imported = new ArrayList<>(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            imported.add(source.noteAt(i));
+        }
+        source.clear();
+        for (Note note : imported) {
+            note.id = 0; // Imported notes get new IDs
+            target.add(note);
+        }
+        return imported.size();
+    }
+    
+    /**
+     * File formats for importing and exporting notes
+     * DATA is the snapshot format of DATA_FILE, JSONL holds one JSON object per
+     * note and line, and MARKDOWN is a folder with one .md file per note.
+     * Enums, File Handling
+     */
+    enum TransferFormat {
+        DATA, JSONL, MARKDOWN;
+        
+        /**
+         * Use the format that was asked for, or guess it from the path
+         * A .jsonl file is JSON Lines; a folder or a path ending in a separator is Markdown.
+         */
+        static TransferFormat of(String location, String requested) {
+            if (requested != null) {
+                try {
+                    return valueOf(requested.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown format: " + requested + " (data, jsonl or markdown)");
+                }
+            }
+            if (location.toLowerCase(Locale.ROOT).endsWith(".jsonl")) {
+                return JSONL;
+            }
+            if (location.endsWith("/") || location.endsWith(File.separator) || Files.isDirectory(Paths.get(location))) {
+                return MARKDOWN;
+            }
+            return DATA;
+        }
+    }
+    
+    /**
+     * Outcome of an import: notes added and records skipped as malformed
+     */
+    static final class ImportResult {
+        final int imported;
+        final List<String> errors;
+        
+        ImportResult(int imported, List<String> errors) {
+            this.imported = imported;
+            this.errors = errors;
+        }
+    }
+    
+    /**
+     * Streaming import and export of notes as JSON Lines
+     * Each line is one object: {"id", "title", "content", "category", "created", "modified"}
+     * with ISO-8601 dates. Export writes every note straight from the store through
+     * one buffered writer. Import reads a line at a time and adds notes to the store
+     * in batches, so memory use does not depend on the size of the file.
+     * Imported notes get new IDs; unknown fields are ignored.
+     * File Handling, Exception Handling
+     */
+    static class JsonLinesFile {
+        private static final int BATCH_SIZE = 1024;
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        
+        private final List<Note> batch = new ArrayList<>(BATCH_SIZE);
+        
+        /**
+         * Write every note of the store to a JSON Lines file
+         */
+        public static void write(NoteStore store, Path path) throws IOException {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+                for (int i = 0; i < store.size(); i++) {
+                    Note note = store.noteAt(i);
+                    out.write("{\"id\":");
+                    out.write(Integer.toString(note.getId()));
+                    out.write(",\"title\":");
+                    writeString(out, note.getTitle());
+                    out.write(",\"content\":");
+                    writeString(out, note.getContent());
+                    out.write(",\"category\":\"");
+                    out.write(note.getCategory().name());
+                    out.write("\",\"created\":\"");
+                    out.write(note.getCreatedDate().withNano(0).format(DATE_FORMAT));
+                    out.write("\",\"modified\":\"");
+                    out.write(note.getModifiedDate().withNano(0).format(DATE_FORMAT));
+                    out.write("\"}\n");
+                }
+            }
+        }
+        
+        /**
+         * Write text as a quoted JSON string, escaping as it goes
+         */
+        static void writeString(Writer out, String text) throws IOException {
+            out.write('"');
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    out.write(text, start, i - start);
+                    switch (c) {
+                        case '"': out.write("\\\""); break;
+                        case '\\': out.write("\\\\"); break;
+                        case '\n': out.write("\\n"); break;
+                        case '\r': out.write("\\r"); break;
+                        case '\t': out.write("\\t"); break;
+                        default: out.write(String.format("\\u%04x", (int) c));
+                    }
+                    start = i + 1;
+                }
+            }
+            out.write(text, start, text.length() - start);
+            out.write('"');
+        }
+        
+        /**
+         * Add the notes of a JSON Lines file to the store as new notes
+         * A malformed line is reported as "line N: message" and skipped.
+         */
+        public ImportResult read(Path path, NoteStore store) throws IOException {
+            List<String> errors = new ArrayList<>();
+            int imported = 0;
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        batch.add(parse(line));
+                    } catch (IllegalArgumentException | DateTimeParseException e) {
+                        errors.add("line " + lineNumber + ": " + e.getMessage());
+                    }
+                    if (batch.size() == BATCH_SIZE) {
+                        imported += flush(store);
+                    }
+                }
+            }
+            imported += flush(store);
+            return new ImportResult(imported, errors);
+        }
+        
+        private int flush(NoteStore store) {
+            int count = batch.size();
+            for (Note note : batch) {
+                store.add(note);
+            }
+            batch.clear();
+            return count;
+        }
+        
+        /**
+         * Parse one JSON object into a new note (without an ID)
+         */
+        static Note parse(String line) {
+            JsonReader json = new JsonReader(line);
+            String title = null;
+            String content = "";
+            NoteCategory category = NoteCategory.PERSONAL;
+            LocalDateTime created = null;
+            LocalDateTime modified = null;
+            
+            json.expect('{');
+            if (!json.tryConsume('}')) {
+                do {
+                    String field = json.readString();
+                    json.expect(':');
+                    switch (field) {
+                        case "title":
+                            title = json.readString();
+                            break;
+                        case "content":
+                            content = json.readString();
+                            break;
+                        case "category":
+                            String name = json.readString();
+                            try {
+                                category = NoteCategory.valueOf(name.toUpperCase(Locale.ROOT));
+                            } catch (IllegalArgumentException e) {
+                                throw new IllegalArgumentException("Unknown category: " + name);
+                            }
+                            break;
+                        case "created":
+                            created = LocalDateTime.parse(json.readString(), DATE_FORMAT);
+                            break;
+                        case "modified":
+                            modified = LocalDateTime.parse(json.readString(), DATE_FORMAT);
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                } while (json.tryConsume(','));
+                json.expect('}');
+            }
+            if (title == null) {
+                throw new IllegalArgumentException("Missing title");
+            }
+            
+            Note note = new Note(title, content, category);
+            if (created != null) {
+                note.createdDate = created;
+            }
+            note.modifiedDate = modified != null ? modified : note.createdDate;
+            return note;
+        }
+    }
+    
+    /**
+     * Minimal reader for one line of JSON, enough for JSON Lines note records
+     * Reads strings (with all escapes) and skips any other value, including nested ones.
+     */
+    static final class JsonReader {
+        private final String text;
+        private int pos = 0;
+        
+        JsonReader(String text) {
+            this.text = text;
+        }
+        
+        void expect(char c) {
+            if (!tryConsume(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at column " + (pos + 1));
+            }
+        }
+        
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+        
+        String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("Bad \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped); // \" \\ and \/
+                }
+            }
+        }
+        
+        void skipValue() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("Missing value");
+            }
+            char c = text.charAt(pos);
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (!tryConsume(close)) {
+                    do {
+                        if (c == '{') {
+                            readString();
+                            expect(':');
+                        }
+                        skipValue();
+                    } while (tryConsume(','));
+                    expect(close);
+                }
+            } else {
+                // Number, true, false or null
+                int start = pos;
+                while (pos < text.length() && ",}] \t".indexOf(text.charAt(pos)) < 0) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw new IllegalArgumentException("Missing value at column " + (pos + 1));
+                }
+            }
+        }
+        
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+    
+    /**
+     * Import and export of notes as a folder of Markdown files
+     * Each note is one file named "<id>-<title>.md": YAML front matter with the
+     * title, category and dates, then the content. Files are written one at a time
+     * straight from the store, and read one at a time while the folder is listed,
+     * with the notes added to the store in batches.
+     * File Handling, Exception Handling
+     */
+    static class MarkdownFolder {
+        private static final int BATCH_SIZE = 1024;
+        private static final String FENCE = "---";
+        private static final int MAX_SLUG_LENGTH = 40;
+        
+        private final List<Note> batch = new ArrayList<>(BATCH_SIZE);
+        
+        /**
+         * Write one Markdown file per note into a folder, creating it if needed
+         */
+        public static void write(NoteStore store, Path folder) throws IOException {
+            Files.createDirectories(folder);
+            for (int i = 0; i < store.size(); i++) {
+                Note note = store.noteAt(i);
+                Path file = folder.resolve(note.getId() + "-" + slug(note.getTitle()) + ".md");
+                try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    out.write(FENCE);
+                    out.write("\ntitle: ");
+                    JsonLinesFile.writeString(out, note.getTitle()); // A JSON string is valid YAML
+                    out.write("\ncategory: ");
+                    out.write(note.getCategory().name());
+                    out.write("\ncreated: ");
+                    out.write(note.getCreatedDate().withNano(0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+                    out.write("\nmodified: ");
+                    out.write(note.getModifiedDate().withNano(0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+                    out.write("\n");
+                    out.write(FENCE);
+                    out.write("\n");
+                    out.write(note.getContent());
+                    out.write("\n");
+                }
+            }
+        }
+        
+        /**
+         * Lower-case words of a title joined by dashes, for use in a file name
+         */
+        static String slug(String title) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < title.length() && sb.length() < MAX_SLUG_LENGTH; i++) {
+                char c = title.charAt(i);
+                if (Character.isLetterOrDigit(c) && c < 128) {
+                    sb.append(Character.toLowerCase(c));
+                } else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '-') {
+                    sb.append('-');
+                }
+            }
+            while (sb.length() > 0 && sb.charAt(sb.length() - 1) == '-') {
+                sb.setLength(sb.length() - 1);
+            }
+            return sb.length() > 0 ? sb.toString() : "note";
+        }
+        
+        /**
+         * Add the notes of every .md file in a folder to the store as new notes
+         * A file that cannot be read or parsed is reported by name and skipped.
+         */
+        public ImportResult read(Path folder, NoteStore store) throws IOException {
+            List<String> errors = new ArrayList<>();
+            int imported = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.md")) {
+                for (Path file : files) {
+                    try {
+                        batch.add(readNote(file));
+                    } catch (IOException | IllegalArgumentException | DateTimeParseException e) {
+                        errors.add(file.getFileName() + ": " + e.getMessage());
+                    }
+                    if (batch.size() == BATCH_SIZE) {
+                        imported += flush(store);
+                    }
+                }
+            }
+            imported += flush(store);
+            return new ImportResult(imported, errors);
+        }
+        
+        private int flush(NoteStore store) {
+            int count = batch.size();
+            for (Note note : batch) {
+                store.add(note);
+            }
+            batch.clear();
+            return count;
+        }
+        
+        /**
+         * Read one Markdown file; without front matter the file name is the title
+         */
+        static Note readNote(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            String title = name.substring(0, name.length() - ".md".length());
+            NoteCategory category = NoteCategory.PERSONAL;
+            LocalDateTime created = null;
+            LocalDateTime modified = null;
+            StringBuilder content = new StringBuilder();
+            
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line = reader.readLine();
+                if (line != null && line.equals(FENCE)) {
+                    while ((line = reader.readLine()) != null && !line.equals(FENCE)) {
+                        int colon = line.indexOf(':');
+                        if (colon < 0) {
+                            continue;
+                        }
+                        String key = line.substring(0, colon).trim();
+                        String value = line.substring(colon + 1).trim();
+                        switch (key) {
+                            case "title":
+                                title = value.startsWith("\"") ? new JsonReader(value).readString() : value;
+                                break;
+                            case "category":
+                                try {
+                                    category = NoteCategory.valueOf(value.toUpperCase(Locale.ROOT));
+                                } catch (IllegalArgumentException e) {
+                                    throw new IllegalArgumentException("Unknown category: " + value);
+                                }
+                                break;
+                            case "created":
+                                created = LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+                                break;
+                            case "modified":
+                                modified = LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+                                break;
+                            default:
+                                // Other front matter is not part of a note
+                        }
+                    }
+                    if (line == null) {
+                        throw new IllegalArgumentException("Front matter is not closed with " + FENCE);
+                    }
+                    line = reader.readLine();
+                }
+                
+                // The content is the rest of the file, without the final line break
+                if (line != null) {
+                    content.append(line);
+                    char[] buffer = new char[8192];
+                    int read = reader.read(buffer);
+                    if (read > 0) {
+                        content.append('\n'); // The line break that readLine() consumed
+                    }
+                    for (; read > 0; read = reader.read(buffer)) {
+                        content.append(buffer, 0, read);
+                    }
+                }
+            }
+            int end = content.length();
+            if (end > 0 && content.charAt(end - 1) == '\n') {
+                end--;
+                if (end > 0 && content.charAt(end - 1) == '\r') {
+                    end--;
+                }
+            }
+            
+            Note note = new Note(title, content.substring(0, end), category);
+            if (created != null) {
+                note.createdDate = created;
+            }
+            note.modifiedDate = modified != null ? modified : note.createdDate;
+            return note;
+        }
+    }
+    
+    /**
+     * Locks that let several threads share one NoteStore
+     * Adding and deleting notes moves notes between slots, so they lock the whole
+     * store. Everything else only takes the store's read lock, so any number of
+     * lists and searches run at once. Reading or editing one note also locks one
+     * of a fixed set of stripes chosen by its ID: edits of notes in different
+     * stripes run in parallel (the indexes they update lock only what they touch),
+     * while edits of the same note are serialized and never seen half-done by get.
+     * Lists print each note under its stripe's read lock for the same reason;
+     * exports and snapshots, which copy every note, lock the whole store.
+     * Methods
+     */
+    static final class StoreLocks {
+        enum Access { NONE, READ_STORE, READ_NOTE, WRITE_NOTE, WRITE_STORE }
+        
+        interface Action {
+            void run() throws IOException;
+        }
+        
+        private static final int STRIPES = 64;
+        
+        private final ReentrantReadWriteLock store = new ReentrantReadWriteLock();
+        private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+        
+        public StoreLocks() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ReentrantReadWriteLock();
+            }
+        }
+        
+        /**
+         * Run an action holding the locks for the given kind of access to a note ID
+         */
+        public void run(Access access, int id, Action action) throws IOException {
+            Lock storeLock;
+            Lock noteLock = null;
+            switch (access) {
+                case NONE:
+                    action.run();
+                    return;
+                case READ_NOTE:
+                    storeLock = store.readLock();
+                    noteLock = stripe(id).readLock();
+                    break;
+                case WRITE_NOTE:
+                    storeLock = store.readLock();
+                    noteLock = stripe(id).writeLock();
+                    break;
+                case WRITE_STORE:
+                    storeLock = store.writeLock();
+                    break;
+                default:
+                    storeLock = store.readLock();
+            }
+            
+            storeLock.lock();
+            try {
+                if (noteLock != null) {
+                    noteLock.lock();
+                }
+                try {
+                    action.run();
+                } finally {
+                    if (noteLock != null) {
+                        noteLock.unlock();
+                    }
+                }
+            } finally {
+                storeLock.unlock();
+            }
+        }
+        
+        /**
+         * Run an action holding the read lock of one note's stripe
+         * For reading a note while already holding the store's read lock.
+         */
+        public void readNote(int id, Runnable action) {
+            Lock noteLock = stripe(id).readLock();
+            noteLock.lock();
+            try {
+                action.run();
+            } finally {
+                noteLock.unlock();
+            }
+        }
+        
+        private ReentrantReadWriteLock stripe(int id) {
+            return stripes[Math.floorMod(id, STRIPES)];
+        }
+    }
+    
+    /**
+     * Local server that lets several clients use the same notes at once
+     * Listens on the loopback interface only. Each connection sends one batch
+     * command per line and gets back the batch output, ending with a "." line.
+     * Clients run on virtual threads where the JVM has them (Java 21 and later)
+     * and on a cached pool of platform threads otherwise.
+     * Methods, Exception Handling
+     */
+    static class NoteServer implements Closeable {
+        static final int DEFAULT_PORT = 7171;
+        
+        private final NoteStore store;
+        private final StoreLocks locks;
+        private final ServerSocket serverSocket;
+        private final ExecutorService clients = newClientExecutor();
+        
+        public NoteServer(NoteStore store, int port) throws IOException {
+            this(store, port, new StoreLocks());
+        }
+        
+        /**
+         * Serve a store that other threads (such as the auto-saver) lock with the same locks
+         */
+        public NoteServer(NoteStore store, int port, StoreLocks locks) throws IOException {
+            this.store = store;
+            this.locks = locks;
+            this.serverSocket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+        }
+        
+        public int port() {
+            return serverSocket.getLocalPort();
+        }
+        
+        /**
+         * Accept clients until the server is closed
+         */
+        public void serve() throws IOException {
+            // Build a deferred search index now rather than inside a client's search
+            store.searchIndex();
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                clients.execute(() -> handle(socket));
+            }
+        }
+        
+        private void handle(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                new BatchRunner(store, socket.getOutputStream(), locks).runSession(socket.getInputStream());
+            } catch (IOException e) {
+                // The client disconnected; nothing to clean up
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            clients.shutdown();
+        }
+        
+        private static ExecutorService newClientExecutor() {
+            try {
+                // Looked up by reflection so the app still builds and runs on Java 17
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "notes-client");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+    
+    /**
+     * Load-test client for server mode
+     * Opens a number of connections to a local server and sends a mix of searches
+     * (50%), reads (25%), edits (15%) and creates (10%) for a fixed time, then prints
+     * the throughput and latency percentiles of each command. Notes the test
+     * creates are deleted again at the end.
+     * Methods, Exception Handling
+     */
+    static class LoadTest {
+        enum Command { SEARCH, GET, EDIT, ADD }
+        
+        private static final String[] WORDS = {
+            "meeting", "project", "idea", "shopping", "exam", "budget", "travel", "report",
+            "review", "call", "plan", "draft", "notes", "list", "book", "music"
+        };
+        
+        private final int port;
+        private final int connections;
+        private final long durationNanos;
+        private final EnumMap<Command, LatencyHistogram> latencies = new EnumMap<>(Command.class);
+        private final LongAdder errors = new LongAdder();
+        
+        public LoadTest(int port, int connections, int seconds) {
+            this.port = port;
+            this.connections = connections;
+            this.durationNanos = seconds * 1_000_000_000L;
+            for (Command command : Command.values()) {
+                latencies.put(command, new LatencyHistogram());
+            }
+        }
+        
+        /**
+         * Run the test and print a report to out
+         */
+        public void run(PrintStream out) throws InterruptedException {
+            out.printf("Load test: %d connection(s) to port %d for %d s%n",
+                    connections, port, durationNanos / 1_000_000_000L);
+            List<Thread> threads = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                long seed = i;
+                Thread thread = new Thread(() -> runClient(start + durationNanos, seed), "load-test-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            
+            long total = 0;
+            out.printf("  %-8s %10s %10s %10s %10s %10s%n", "(ms)", "ops/s", "p50", "p90", "p99", "max");
+            for (Command command : Command.values()) {
+                LatencyHistogram histogram = latencies.get(command);
+                total += histogram.count();
+                out.printf("  %-8s %10.0f %10.3f %10.3f %10.3f %10.3f%n",
+                        command.name().toLowerCase(Locale.ROOT), histogram.count() / seconds,
+                        histogram.percentile(0.50) / 1e6, histogram.percentile(0.90) / 1e6,
+                        histogram.percentile(0.99) / 1e6, histogram.max() / 1e6);
+            }
+            out.printf("  Total: %.0f ops/s, %d error(s)%n", total / seconds, errors.sum());
+        }
+        
+        private void runClient(long deadline, long seed) {
+            Random random = new Random(seed);
+            List<String> created = new ArrayList<>();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), false);
+                
+                while (System.nanoTime() < deadline) {
+                    int roll = random.nextInt(100);
+                    Command command = created.isEmpty() || roll >= 90 ? Command.ADD
+                            : roll < 50 ? Command.SEARCH : roll < 75 ? Command.GET : Command.EDIT;
+                    String line;
+                    switch (command) {
+                        case ADD:
+                            line = "add \"load test\" \"" + word(random) + " " + word(random) + "\" work";
+                            break;
+                        case GET:
+                            line = "get " + created.get(random.nextInt(created.size()));
+                            break;
+                        case EDIT:
+                            line = "edit " + created.get(random.nextInt(created.size())) + " content \""
+                                    + word(random) + " " + word(random) + "\"";
+                            break;
+                        default:
+                            line = "search " + word(random) + " 20";
+                    }
+                    
+                    long start = System.nanoTime();
+                    List<String> response = request(in, out, line);
+                    latencies.get(command).record(System.nanoTime() - start);
+                    if (!response.isEmpty() && response.get(0).startsWith("error:")) {
+                        errors.increment();
+                    } else if (command == Command.ADD) {
+                        created.add(response.get(0));
+                    }
+                }
+                
+                for (String id : created) {
+                    request(in, out, "delete " + id);
+                }
+                request(in, out, "quit");
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+        
+        private static String word(Random random) {
+            return WORDS[random.nextInt(WORDS.length)];
+        }
+        
+        private static List<String> request(BufferedReader in, PrintWriter out, String line) throws IOException {
+            out.println(line);
+            out.flush();
+            List<String> response = new ArrayList<>();
+            if (line.equals("quit")) {
+                return response;
+            }
+            String reply;
+            while ((reply = in.readLine()) != null && !reply.equals(BatchRunner.END_OF_RESPONSE)) {
+                response.add(reply);
+            }
+            if (reply == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            return response;
+        }
+    }
+    
+    /**
+     * Opt-in runtime metrics: latency histograms per operation and memory use
+     * When metrics are off (the default), start() returns 0 and record() returns
+     * at once, so instrumented code pays for a single field read.
+     * With --metrics the statistics are also published as JMX MBeans under "notes:".
+     * Methods, Enums
+     */
+    static final class Metrics {
+        enum Operation { LOAD, SAVE, SEARCH, FILTER, CREATE, EDIT, DELETE }
+        
+        private static volatile boolean enabled = false;
+        private static final EnumMap<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+        private static final StoreStats storeStats = new StoreStats();
+        
+        static {
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new LatencyHistogram());
+            }
+        }
+        
+        private Metrics() {
+        }
+        
+        public static boolean isEnabled() {
+            return enabled;
+        }
+        
+        /**
+         * Start recording, track the store's size and register the MBeans
+         * Must be called before notes are loaded so the memory counters include them.
+         */
+        public static void enable(NoteStore store) {
+            if (enabled) {
+                return;
+            }
+            storeStats.store = store;
+            store.addListener(storeStats);
+            enabled = true;
+            
+            try {
+                javax.management.MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                for (Operation operation : Operation.values()) {
+                    server.registerMBean(new OperationStats(operation),
+                            new ObjectName("notes:type=Operation,name=" + operation.name().toLowerCase(Locale.ROOT)));
+                }
+                server.registerMBean(storeStats, new ObjectName("notes:type=Store"));
+            } catch (JMException e) {
+                System.err.println("✗ Could not register metrics MBeans: " + e.getMessage());
+            }
+        }
+        
+        /**
+         * Start timing an operation; pass the result to record()
+         */
+        public static long start() {
+            return enabled ? System.nanoTime() : 0L;
+        }
+        
+        public static void record(Operation operation, long start) {
+            if (start != 0L) {
+                histograms.get(operation).record(System.nanoTime() - start);
+            }
+        }
+        
+        public static LatencyHistogram histogram(Operation operation) {
+            return histograms.get(operation);
+        }
+        
+        /**
+         * Format the latency percentiles and memory counters as a table
+         */
+        public static String report(NoteStore store) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("  %-8s %8s %10s %10s %10s %10s %10s%n",
+                    "(ms)", "count", "mean", "p50", "p90", "p99", "max"));
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram histogram = histograms.get(operation);
+                sb.append(String.format("  %-8s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                        operation.name().toLowerCase(Locale.ROOT), histogram.count(),
+                        histogram.mean() / 1e6, histogram.percentile(0.50) / 1e6,
+                        histogram.percentile(0.90) / 1e6, histogram.percentile(0.99) / 1e6,
+                        histogram.max() / 1e6));
+            }
+            Runtime runtime = Runtime.getRuntime();
+            sb.append(String.format("%n  Notes in memory:      %d%n", store.size()));
+            sb.append(String.format("  Text characters:      %d%n", storeStats.getTextChars()));
+            sb.append(String.format("  Mapped content bytes: %d%n", storeStats.getMappedBytes()));
+            if (store.columns() != null) {
+                sb.append(String.format("  Column page bytes:    %d KB (%s)%n", store.columns().pageBytes() / 1024,
+                        store.columns().isOffHeap() ? "off-heap" : "heap"));
+            }
+            sb.append(String.format("  JVM heap used:        %d KB%n", (runtime.totalMemory() - runtime.freeMemory()) / 1024));
+            return sb.toString();
+        }
+        
+        /**
+         * JMX view of one operation's latency histogram
+         */
+        public interface OperationStatsMBean {
+            long getCount();
+            double getMeanMillis();
+            double getP50Millis();
+            double getP90Millis();
+            double getP99Millis();
+            double getMaxMillis();
+        }
+        
+        static final class OperationStats implements OperationStatsMBean {
+            private final LatencyHistogram histogram;
+            
+            OperationStats(Operation operation) {
+                this.histogram = histograms.get(operation);
+            }
+            
+            @Override public long getCount() { return histogram.count(); }
+            @Override public double getMeanMillis() { return histogram.mean() / 1e6; }
+            @Override public double getP50Millis() { return histogram.percentile(0.50) / 1e6; }
+            @Override public double getP90Millis() { return histogram.percentile(0.90) / 1e6; }
+            @Override public double getP99Millis() { return histogram.percentile(0.99) / 1e6; }
+            @Override public double getMaxMillis() { return histogram.max() / 1e6; }
+        }
+        
+        /**
+         * JMX view of how many notes and how much text are held
+         */
+        public interface StoreStatsMBean {
+            int getNoteCount();
+            long getTextChars();
+            long getMappedBytes();
+        }
+        
+        /**
+         * Keeps running totals of note text, so reading them never scans the store
+         * Lazily loaded content is counted as mapped bytes, since it is not on the heap.
+         */
+        static final class StoreStats implements StoreStatsMBean, NoteListener {
+            private NoteStore store;
+            private final AtomicLong textChars = new AtomicLong();
+            private final AtomicLong mappedBytes = new AtomicLong();
+            
+            @Override public int getNoteCount() { return store == null ? 0 : store.size(); }
+            @Override public long getTextChars() { return textChars.get(); }
+            @Override public long getMappedBytes() { return mappedBytes.get(); }
+            
+            private void count(Note note, int sign) {
+                textChars.addAndGet(sign * (long) note.getTitle().length());
+                MappedText mapped = note.mappedContent;
+                if (mapped != null) {
+                    mappedBytes.addAndGet(sign * (long) mapped.length);
+                } else {
+                    textChars.addAndGet(sign * (long) note.getContent().length());
+                }
+            }
+            
+            @Override
+            public void noteAdded(Note note) {
+                count(note, 1);
+            }
+            
+            @Override
+            public void noteRemoved(Note note) {
+                count(note, -1);
+            }
+            
+            @Override
+            public void noteUpdated(Note note, String oldTitle, String oldContent, NoteCategory oldCategory,
+                    LocalDateTime oldModified) {
+                textChars.addAndGet(note.getTitle().length() - (long) oldTitle.length());
+                // Content that was mapped before the edit was moved to textChars by contentUnmapped
+                if (oldContent != null && note.mappedContent == null) {
+                    textChars.addAndGet(note.contentText().length() - (long) oldContent.length());
+                }
+            }
+            
+            @Override
+            public void contentUnmapped(Note note, int mappedBytes, int oldChars) {
+                this.mappedBytes.addAndGet(-mappedBytes);
+                textChars.addAndGet(oldChars);
+            }
+            
+            @Override
+            public void contentInserted(Note note, int offset, CharSequence text, LocalDateTime oldModified) {
+                textChars.addAndGet(text.length());
+            }
+            
+            @Override
+            public void notesCleared() {
+                textChars.set(0);
+                mappedBytes.set(0);
+            }
+        }
+    }
+    
+    /**
+     * Thread-safe latency histogram with log-linear buckets
+     * Each power of two is split into 8 buckets, so percentiles are accurate to
+     * about 12% at any scale without storing individual samples.
+     * Arrays
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+        
+        public long count() { return count.sum(); }
+        public long max() { return max.get(); }
+        
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+        
+        /**
+         * Upper bound of the bucket holding the given fraction (0 to 1) of samples
+         */
+        public long percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+        
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+        
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+    
+    /**
+     * Display the main menu
+     * Methods/Functions
+     */
+    private static void displayMainMenu() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("                    MAIN MENU");
+        System.out.println("=".repeat(50));
+        System.out.println("  1. Create New Note");
+        System.out.println("  2. View All Notes");
+        System.out.println("  3. View Note Details");
+        System.out.println("  4. Edit Note");
+        System.out.println("  5. Delete Note");
+        System.out.println("  6. Search Notes");
+        System.out.println("  7. Filter by Category");
+        System.out.println("  8. Save Notes");
+        System.out.println("  9. Exit");
+        System.out.println(" 10. Statistics");
+        System.out.println(" 11. Find Duplicates");
+        System.out.println("=".repeat(50));
+        if (startupLoader != null && !startupLoader.isDone()) {
+            System.out.println(startupLoader.progress());
+        } else {
+            awaitNotes(); // Shows the load messages once loading is done
+            System.out.printf("Total Notes: %d\n", store.size());
+        }
+        System.out.println("=".repeat(50));
+    }
+    
+    /**
+     * Wait for the notes being loaded by --fast-start, showing progress meanwhile
+     * The messages held back while loading are printed once it is done.
+     * Threads, Methods
+     */
+    private static void awaitNotes() {
+        if (startupLoader == null) {
+            return;
+        }
+        startupLoader.await(System.out);
+        messages = System.out;
+        System.out.print(startupLoader.heldMessages());
+        startupLoader = null;
+    }
+    
+    /**
+     * Create a new note
+     * Arrays, Methods, Enums
+     */
+    private static void createNote() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("              CREATE NEW NOTE");
+        System.out.println("=".repeat(50));
+        
+        scanner.nextLine(); // Clear buffer
+        
+        System.out.print("Enter note title: ");
+        String title = scanner.nextLine();
+        
+        if (title.trim().isEmpty()) {
+            System.out.println("✗ Title cannot be empty!");
+            return;
+        }
+        
+        System.out.println();
+        CharSequence content = readContent("Enter note content");
+        if (content == null) {
+            return;
+        }
+        if (isBlank(content)) {
+            System.out.println("✗ Content cannot be empty!");
+            return;
+        }
+        
+        // Display category options
+        System.out.println("\nSelect Category:");
+        NoteCategory[] categories = NoteCategory.values();
+        for (int i = 0; i < categories.length; i++) {
+            System.out.printf("  %d. %s\n", i + 1, categories[i].getDisplayName());
+        }
+        
+        int categoryChoice = getIntInput("Enter category number: ");
+        if (categoryChoice < 1 || categoryChoice > categories.length) {
+            System.out.println("✗ Invalid category! Defaulting to PERSONAL.");
+            categoryChoice = 1;
+        }
+        
+        NoteCategory selectedCategory = categories[categoryChoice - 1];
+        Note newNote = new Note(title, content, selectedCategory);
+        // New IDs follow the loaded ones, so the note is added once loading is done
+        awaitNotes();
+        store.createNote(newNote);
+        
+        System.out.println("\n✓ Note created successfully!");
+        System.out.println("  ID: " + newNote.getId());
+        System.out.println("  Title: " + title);
+        System.out.println("  Category: " + selectedCategory.getDisplayName());
+        
+        // Signing every note would hold up the first create; skip the check until the background build is done
+        DuplicateIndex duplicates = store.duplicateIndexIfReady();
+        List<DuplicateIndex.Match> similar = duplicates == null ? Collections.emptyList()
+                : duplicates.similarTo(newNote.getId(), DuplicateIndex.DEFAULT_SIMILARITY);
+        if (!similar.isEmpty()) {
+            System.out.println("\nThis note looks like " + similar.size() + " existing note(s):");
+            for (DuplicateIndex.Match match : similar.subList(0, Math.min(5, similar.size()))) {
+                System.out.printf("  %d. %s (%.0f%% alike)\n", match.id, store.get(match.id).getTitle(),
+                        match.similarity * 100);
+            }
+        }
+    }
+    
+    /**
+     * View all notes in a list, a page at a time in the order they were added
+     * Arrays, Methods
+     */
+    private static void viewAllNotes() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("                ALL NOTES");
+        System.out.println("=".repeat(50));
+        
+        if (store.isEmpty()) {
+            System.out.println("  No notes available.");
+            return;
+        }
+        
+        DateIndex dateIndex = store.dateIndex();
+        showPages(dateIndex.size(), dateIndex::pageInOrderAdded, false);
+    }
+    
+    /**
+     * Browse all notes a page at a time, in the order the user picks
+     * Date orders are read from the date index, so each page costs a binary search
+     * rather than a sort of every note.
+     * Arrays, Methods
+     */
+    private static void browseNotes() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("                ALL NOTES");
+        System.out.println("=".repeat(50));
+        
+        if (store.isEmpty()) {
+            System.out.println("  No notes available.");
+            return;
+        }
+        
+        System.out.println("  1. Order added");
+        System.out.println("  2. Recently modified first");
+        System.out.println("  3. Recently created first");
+        System.out.println("  4. Oldest first");
+        System.out.println("  5. Modified in the last 24 hours");
+        int order = getIntInput("Select order: ");
+        scanner.nextLine(); // Clear buffer
+        
+        DateIndex dateIndex = store.dateIndex();
+        int total;
+        PageSource pages;
+        switch (order) {
+            case 1:
+                total = dateIndex.size();
+                pages = dateIndex::pageInOrderAdded;
+                break;
+            case 2:
+                total = dateIndex.size();
+                pages = (offset, limit) -> dateIndex.page(DateIndex.Field.MODIFIED, true, offset, limit);
+                break;
+            case 3:
+                total = dateIndex.size();
+                pages = (offset, limit) -> dateIndex.page(DateIndex.Field.CREATED, true, offset, limit);
+                break;
+            case 4:
+                total = dateIndex.size();
+                pages = (offset, limit) -> dateIndex.page(DateIndex.Field.CREATED, false, offset, limit);
+                break;
+            case 5: {
+                LocalDateTime now = LocalDateTime.now();
+                int[] recent = dateIndex.between(DateIndex.Field.MODIFIED, now.minusDays(1), now.plusSeconds(1));
+                total = recent.length;
+                // Newest first
+                pages = (offset, limit) -> {
+                    int[] ids = new int[Math.max(0, Math.min(limit, recent.length - offset))];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = recent[recent.length - 1 - offset - i];
+                    }
+                    return ids;
+                };
+                break;
+            }
+            default:
+                System.out.println("✗ Invalid choice!");
+                return;
+        }
+        
+        if (total == 0) {
+            System.out.println("  No notes found.");
+            return;
+        }
+        showPages(total, pages, true);
+    }
+    
+    /**
+     * Show a listing PAGE_SIZE notes at a time, paging forward and back on request
+     * Only the notes of the page on screen are fetched and formatted, and each page
+     * is written with one print, so the cost does not grow with the listing.
+     * Expects the input buffer to be clear. Methods
+     */
+    private static void showPages(int total, PageSource pages, boolean showModified) {
+        int pageCount = (total + PAGE_SIZE - 1) / PAGE_SIZE;
+        int page = 0;
+        while (true) {
+            listRenderer.line("");
+            listRenderer.line("-".repeat(50));
+            for (int id : pages.get(page * PAGE_SIZE, PAGE_SIZE)) {
+                Note note = store.get(id);
+                if (note != null) {
+                    listRenderer.row(note, showModified);
+                }
+            }
+            listRenderer.line("-".repeat(50));
+            if (pageCount <= 1) {
+                listRenderer.flush();
+                return;
+            }
+            listRenderer.line("  Page " + (page + 1) + " of " + pageCount + " (" + total + " notes)");
+            listRenderer.flush();
+            System.out.print("[Enter] next page, p previous page, q stop: ");
+            String input = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+            if (input.equals("q")) {
+                return;
+            } else if (input.equals("p")) {
+                page = Math.max(0, page - 1);
+            } else if (page + 1 < pageCount) {
+                page++;
+            } else {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Supplies the note IDs of one page of a listing
+     */
+    private interface PageSource {
+        int[] get(int offset, int limit);
+    }
+    
+    /**
+     * View detailed information of a specific note
+     * Arrays, Methods
+     */
+    private static void viewNoteDetails() {
+        if (store.isEmpty()) {
+            System.out.println("\n✗ No notes available.");
+            return;
+        }
+        
+        Note note = pickNote("view");
+        if (note == null) {
+            System.out.println("✗ Invalid note number!");
+            return;
+        }
+        
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("               NOTE DETAILS");
+        System.out.println("=".repeat(50));
+        System.out.println("Title: " + note.getTitle());
+        System.out.println("Category: " + note.getCategory().getDisplayName());
+        System.out.println("Created: " + note.getCreatedDate().format(formatter));
+        System.out.println("Modified: " + note.getModifiedDate().format(formatter));
+        System.out.println("-".repeat(50));
+        System.out.println("Content:");
+        System.out.println(note.getContent());
+        System.out.println("=".repeat(50));
+    }
+    
+    /**
+     * Ask which note to use, by number or by typing part of its title
+     * Typing a word shows the best-matching titles (prefix or close spelling)
+     * with their numbers, so the whole list does not have to be printed;
+     * a blank line still lists every note. Returns null for an unknown number.
+     * Methods, Collections
+     */
+    private static Note pickNote(String action) {
+        scanner.nextLine(); // Clear buffer
+        while (true) {
+            System.out.print("\nEnter note number to " + action + ", or part of its title (blank lists all): ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                viewAllNotes();
+                continue;
+            }
+            if (isNumber(input)) {
+                try {
+                    return store.get(Integer.parseInt(input));
+                } catch (NumberFormatException e) {
+                    return null; // Too many digits for a note number
+                }
+            }
+            
+            int[] ids = store.titleIndex().suggest(input, TITLE_MATCHES);
+            if (ids.length == 0) {
+                System.out.println("✗ No titles match \"" + input + "\".");
+                continue;
+            }
+            for (int id : ids) {
+                Note note = store.get(id);
+                System.out.printf("  %4d. %s%n", id, note.getTitle());
+            }
+            if (ids.length == 1) {
+                System.out.print("Use this note? (yes/no): ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("yes")) {
+                    return store.get(ids[0]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Edit an existing note
+     * Arrays, Methods, Enums
+     */
+    private static void editNote() {
+        if (store.isEmpty()) {
+            System.out.println("\n✗ No notes available.");
+            return;
+        }
+        
+        Note note = pickNote("edit");
+        if (note == null) {
+            System.out.println("✗ Invalid note number!");
+            return;
+        }
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("               EDIT NOTE");
+        System.out.println("=".repeat(50));
+        System.out.println("  1. Edit Title");
+        System.out.println("  2. Edit Content");
+        System.out.println("  3. Edit Category");
+        System.out.println("  4. View Content History");
+        System.out.println("  5. Restore Earlier Content");
+        System.out.println("  6. Append to Content");
+        System.out.println("  7. Cancel");
+        System.out.println("=".repeat(50));
+        
+        int choice = getIntInput("Enter your choice: ");
+        scanner.nextLine(); // Clear buffer
+        
+        switch (choice) {
+            case 1:
+                System.out.print("Enter new title: ");
+                String newTitle = scanner.nextLine();
+                if (!newTitle.trim().isEmpty()) {
+                    note.setTitle(newTitle);
+                    System.out.println("✓ Title updated successfully!");
+                }
+                break;
+            case 2:
+                CharSequence newContent = readContent("Enter new content");
+                if (newContent != null && !isBlank(newContent)) {
+                    note.setContent(newContent);
+                    System.out.println("✓ Content updated successfully!");
+                }
+                break;
+            case 3:
+                System.out.println("Select new category:");
+                NoteCategory[] categories = NoteCategory.values();
+                for (int i = 0; i < categories.length; i++) {
+                    System.out.printf("  %d. %s\n", i + 1, categories[i].getDisplayName());
+                }
+                int catChoice = getIntInput("Enter category number: ");
+                if (catChoice >= 1 && catChoice <= categories.length) {
+                    note.setCategory(categories[catChoice - 1]);
+                    System.out.println("✓ Category updated successfully!");
+                }
+                break;
+            case 4:
+            case 5:
+                try {
+                    showContentHistory(note, choice == 5);
+                } catch (IOException e) {
+                    System.out.println("✗ Error reading history: " + e.getMessage());
+                }
+                break;
+            case 6:
+                // Large content is not copied, only the added text is stored
+                CharSequence addition = readContent("Enter text to add");
+                if (addition != null && addition.length() > 0) {
+                    note.appendContent(addition);
+                    System.out.println("✓ Added " + addition.length() + " character(s) to the content.");
+                }
+                break;
+            case 7:
+                System.out.println("Edit cancelled.");
+                break;
+            default:
+                System.out.println("✗ Invalid choice!");
+        }
+    }
+    
+    /**
+     * Read content typed line by line until END, or from the file named by an @path first line
+     * A file is streamed through a buffered reader into the note's storage.
+     * Returns null if the file cannot be read.
+     * File Handling, Exception Handling
+     */
+    private static CharSequence readContent(String prompt) {
+        System.out.println(prompt + " (type 'END' on a new line to finish, or @path to read a file):");
+        String line = scanner.nextLine();
+        if (line.startsWith("@") && !line.startsWith("@@")) {
+            Path path = Paths.get(line.substring(1).trim());
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                CharSequence content = PieceTable.read(reader);
+                System.out.println("✓ Read " + content.length() + " character(s) from " + path + ".");
+                return content;
+            } catch (NoSuchFileException e) {
+                System.out.println("✗ File not found: " + path);
+                return null;
+            } catch (IOException e) {
+                System.out.println("✗ Error reading file: " + e.getMessage());
+                return null;
+            }
+        }
+        
+        PieceTable.Builder content = new PieceTable.Builder();
+        // A first line starting @@ stands for one starting with a literal @
+        if (line.startsWith("@@")) {
+            line = line.substring(1);
+        }
+        while (!line.equals("END")) {
+            content.append(line).append("\n");
+            line = scanner.nextLine();
+        }
+        return content.build();
+    }
+    
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            // Same test as String.trim()
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * List the stored versions of a note's content, then show or restore one of them
+     * Versions are rebuilt from the history file only when picked.
+     * File Handling, Exception Handling
+     */
+    private static void showContentHistory(Note note, boolean restore) throws IOException {
+        NoteHistory history = database.history();
+        List<NoteHistory.Version> versions = history != null ? history.versions(note.getId())
+                : Collections.<NoteHistory.Version>emptyList();
+        if (versions.size() < 2) {
+            System.out.println("✗ This note's content has not been changed yet.");
+            return;
+        }
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("             CONTENT HISTORY");
+        System.out.println("=".repeat(50));
+        System.out.printf("%-8s %-20s %s%n", "Version", "Saved", "Characters");
+        System.out.println("-".repeat(50));
+        for (NoteHistory.Version version : versions) {
+            System.out.printf("%-8d %-20s %d%s%n", version.number, version.modified.format(DISPLAY_DATE_FORMAT),
+                    version.length, version.number == versions.size() ? "  (current)" : "");
+        }
+        System.out.println("=".repeat(50));
+        
+        int number = getOptionalIntInput(restore ? "Version to restore (leave blank to cancel): "
+                : "Version to view (leave blank to go back): ");
+        if (number == 0) {
+            return;
+        }
+        if (number > versions.size()) {
+            System.out.println("✗ Invalid version number!");
+            return;
+        }
+        String text = history.text(note.getId(), number);
+        if (!restore) {
+            System.out.println("-".repeat(50));
+            System.out.println(text);
+            System.out.println("-".repeat(50));
+        } else if (number == versions.size()) {
+            System.out.println("✗ That is the current content.");
+        } else {
+            // Restoring is an edit too, so the replaced content stays in the history
+            note.setContent(text);
+            System.out.println("✓ Restored version " + number + " of the content.");
+        }
+    }
+    
+    /**
+     * Delete a note
+     * Arrays, Methods
+     */
+    private static void deleteNote() {
+        if (store.isEmpty()) {
+            System.out.println("\n✗ No notes available.");
+            return;
+        }
+        
+        Note note = pickNote("delete");
+        if (note == null) {
+            System.out.println("✗ Invalid note number!");
+            return;
+        }
+        
+        System.out.print("Are you sure you want to delete this note? (yes/no): ");
+        String confirm = scanner.nextLine();
+        
+        if (confirm.equalsIgnoreCase("yes")) {
+            store.deleteNote(note.getId());
+            System.out.println("✓ Note deleted successfully!");
+        } else {
+            System.out.println("Deletion cancelled.");
+        }
+    }
+    
+    /**
+     * Search notes by keyword using regular expressions
+     * Arrays, Methods, Regular Expressions
+     */
+    private static void searchNotes() {
+        if (store.isEmpty()) {
+            System.out.println("\n✗ No notes available.");
+            return;
+        }
+        
+        scanner.nextLine(); // Clear buffer
+        System.out.print("\nEnter search keyword: ");
+        String keyword = scanner.nextLine();
+        
+        if (keyword.trim().isEmpty()) {
+            System.out.println("✗ Search keyword cannot be empty!");
+            return;
+        }
+        
+        // Matches are printed as they are found; a limit stops the search early
+        int limit = getOptionalIntInput("Maximum number of results (leave blank for all): ");
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("             SEARCH RESULTS");
+        System.out.println("=".repeat(50));
+        
+        int found;
+        try {
+            int[] buffered = {0};
+            found = store.findEach(keyword, null, limit, note -> {
+                listRenderer.row(note, false);
+                if (++buffered[0] == PAGE_SIZE) {
+                    listRenderer.flush();
+                    buffered[0] = 0;
+                }
+                return true;
+            });
+        } catch (SearchTimeoutException e) {
+            listRenderer.flush();
+            System.out.println("  ✗ " + e.getMessage());
+            return;
+        }
+        listRenderer.flush();
+        
+        if (found == 0) {
+            System.out.println("  No notes found matching '" + keyword + "'");
+        } else if (found == limit) {
+            System.out.println("  (showing the first " + limit + " matches)");
+        }
+    }
+    
+    /**
+     * Filter notes by category
+     * Arrays, Methods, Enums
+     */
+    private static void filterByCategory() {
+        if (store.isEmpty()) {
+            System.out.println("\n✗ No notes available.");
+            return;
+        }
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("           FILTER BY CATEGORY");
+        System.out.println("=".repeat(50));
+        
+        CategoryIndex categoryIndex = store.categoryIndex();
+        NoteCategory[] categories = NoteCategory.values();
+        for (int i = 0; i < categories.length; i++) {
+            System.out.printf("  %d. %s (%d)\n", i + 1, categories[i].getDisplayName(),
+                    categoryIndex.count(categories[i]));
+        }
+        
+        int choice = getIntInput("Select category: ");
+        
+        if (choice < 1 || choice > categories.length) {
+            System.out.println("✗ Invalid category!");
+            return;
+        }
+        
+        NoteCategory selectedCategory = categories[choice - 1];
+        
+        scanner.nextLine(); // Clear buffer
+        System.out.print("Enter search keyword to narrow results (leave blank for all): ");
+        String keyword = scanner.nextLine();
+        IdSet matches;
+        try {
+            matches = store.filter(selectedCategory, keyword);
+        } catch (SearchTimeoutException e) {
+            System.out.println("✗ " + e.getMessage());
+            return;
+        }
+        
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("  Notes in category: " + selectedCategory.getDisplayName());
+        System.out.println("=".repeat(50));
+        
+        if (matches.isEmpty()) {
+            System.out.println("  No notes in this category.");
+            return;
+        }
+        showPages(matches.size(), (offset, limit) -> {
+            int[] ids = new int[Math.max(0, Math.min(limit, matches.size() - offset))];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = matches.get(offset + i);
+            }
+            return ids;
+        }, false);
+    }
+    
+    /**
+     * List groups of notes with nearly the same content
+     * Groups come from the duplicate index, so this takes about linear time
+     * in the number of notes rather than comparing every pair.
+     * Collections, Methods
+     */
+    private static void findDuplicates() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("              FIND DUPLICATES");
+        System.out.println("=".repeat(50));
+        
+        if (store.isEmpty()) {
+            System.out.println("  No notes available.");
+            return;
+        }
+        
+        scanner.nextLine(); // Clear buffer
+        int percent = getOptionalIntInput("Minimum similarity in percent (leave blank for "
+                + Math.round(DuplicateIndex.DEFAULT_SIMILARITY * 100) + "): ");
+        double minSimilarity = percent > 0 ? Math.min(percent, 100) / 100.0 : DuplicateIndex.DEFAULT_SIMILARITY;
+        
+        List<int[]> clusters = store.duplicateIndex().clusters(minSimilarity);
+        if (clusters.isEmpty()) {
+            System.out.println("  No duplicates found.");
+            return;
+        }
+        for (int i = 0; i < clusters.size(); i++) {
+            listRenderer.line("");
+            listRenderer.line("Group " + (i + 1) + " of " + clusters.size() + " (" + clusters.get(i).length + " notes)");
+            for (int id : clusters.get(i)) {
+                listRenderer.row(store.get(id), true);
+            }
+            listRenderer.flush();
+            if ((i + 1) % PAGE_SIZE == 0 && i + 1 < clusters.size()) {
+                System.out.print("[Enter] more groups, q stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Show operation latencies and memory use
+     * Methods
+     */
+    private static void viewStatistics() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("                STATISTICS");
+        System.out.println("=".repeat(50));
+        
+        if (!Metrics.isEnabled()) {
+            System.out.println("  Metrics are off. Start the app with --metrics to record them.");
+            return;
+        }
+        System.out.print(Metrics.report(store));
+    }
+    
+    /**
+     * Save notes to file
+     * Changes are already in the journal; this forces them to disk and compacts
+     * the journal into a new snapshot once it has grown large.
+     * File Handling, Exception Handling
+     */
+    private static void saveNotesToFile() {
+        long start = Metrics.start();
+        try {
+            database.save();
+        } catch (IOException e) {
+            messages.println("✗ Error saving notes: " + e.getMessage());
+        }
+        Metrics.record(Metrics.Operation.SAVE, start);
+    }
+    
+    /**
+     * Flush and close the journal on exit
+     */
+    private static void closeJournal() {
+        try {
+            database.close();
+        } catch (IOException e) {
+            messages.println("✗ Error closing journal: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Load notes from file
+     * Reads the last snapshot, then replays the journal on top of it.
+     * File Handling, Exception Handling, Arrays, Enums
+     */
+    private static void loadNotesFromFile() {
+        long start = Metrics.start();
+        store.clear();
+        
+        try {
+            List<String> errors = database.loadSnapshot(lazyLoad);
+            if (!errors.isEmpty()) {
+                messages.println("✗ Skipped " + errors.size() + " malformed note record(s):");
+                for (int i = 0; i < Math.min(5, errors.size()); i++) {
+                    messages.println("    " + errors.get(i));
+                }
+                if (errors.size() > 5) {
+                    messages.println("    ...");
+                }
+            }
+        } catch (IOException e) {
+            messages.println("✗ Error loading notes: " + e.getMessage());
+        } catch (Exception e) {
+            messages.println("✗ Error parsing notes file: " + e.getMessage());
+        }
+        
+        try {
+            int replayed = database.replayJournal();
+            if (replayed > 0) {
+                messages.println("✓ Replayed " + replayed + " change(s) from journal.");
+            }
+        } catch (IOException e) {
+            messages.println("✗ Error reading journal: " + e.getMessage());
+        } catch (Exception e) {
+            messages.println("✗ Error replaying journal: " + e.getMessage());
+        }
+        
+        SegmentedLog segments = database.segments();
+        if (segments != null) {
+            StringJoiner loaded = new StringJoiner(", ");
+            for (NoteCategory category : NoteCategory.values()) {
+                if (segments.isLoaded(category)) {
+                    loaded.add(category.getDisplayName());
+                }
+            }
+            messages.println("✓ Loaded " + store.size() + " note(s) from segments: " + loaded + ".");
+        } else if (!store.isEmpty()) {
+            messages.println("✓ Loaded " + store.size() + " note(s) from file.");
+        }
+        Metrics.record(Metrics.Operation.LOAD, start);
+    }
+    
+    /**
+     * Get an optional positive integer from a whole input line; a blank line gives 0
+     * Exception Handling, Methods
+     */
+    private static int getOptionalIntInput(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) {
+                return 0;
+            }
+            try {
+                int value = Integer.parseInt(line);
+                if (value > 0) {
+                    return value;
+                }
+                System.out.println("✗ Please enter a number greater than 0.");
+            } catch (NumberFormatException e) {
+                System.out.println("✗ Invalid input! Please enter a number.");
+            }
+        }
+    }
+    
+    private static boolean isCategoryList(String text) {
+        for (String name : text.split(",")) {
+            try {
+                NoteCategory.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isNumber(String text) {
+        return !text.isEmpty() && text.chars().allMatch(Character::isDigit);
+    }
+    
+    /**
+     * Get integer input with exception handling
+     * Exception Handling, Methods
+     */
+    private static int getIntInput(String prompt) {
+        while (true) {
+            try {
+                System.out.print(prompt);
+                return scanner.nextInt();
+            } catch (InputMismatchException e) {
+                System.out.println("✗ Invalid input! Please enter a number.");
+                scanner.nextLine(); // Clear invalid input
+            }
+        }
+    }
+}
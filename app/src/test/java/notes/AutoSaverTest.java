@@ -0,0 +1,137 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteDatabase;
+import notes.NoteTakingApp.NoteStore;
+import notes.NoteTakingApp.StoreLocks;
+
+/**
+ * Writing changes in the background, across a snapshot replacing the journal
+ */
+class AutoSaverTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void changesAfterTheSnapshotIsTakenSurviveReloading() throws IOException {
+        NoteStore store = new NoteStore();
+        NoteDatabase database = open(store);
+        // A journal past its compaction size, so the next change takes a snapshot
+        int big = store.add(new Note("Big", "x".repeat(1 << 20), NoteCategory.WORK));
+        database.startAutoSave();
+        
+        // The create takes the snapshot; the edits follow before the writer wakes up
+        int id = store.add(new Note("Draft", "First", NoteCategory.PERSONAL));
+        store.get(id).setContent("Edited");
+        store.get(id).appendContent(" and appended");
+        store.get(big).setTitle("Big, renamed");
+        database.save();
+        
+        assertReloads(store);
+        
+        // Later changes go into the emptied journal as usual
+        store.remove(big);
+        store.get(id).setTitle("Final");
+        database.close();
+        
+        NoteStore reloaded = assertReloads(store);
+        assertEquals("Final", reloaded.get(id).getTitle());
+        assertEquals("Edited and appended", reloaded.get(id).getContent());
+    }
+    
+    @Test
+    void snapshotTakenWhileClientsEditKeepsEveryEdit() throws Exception {
+        NoteStore store = new NoteStore();
+        NoteDatabase database = open(store);
+        store.add(new Note("Big", "x".repeat(1 << 20), NoteCategory.WORK));
+        int[] ids = new int[8];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = store.add(new Note("Note " + i, "", NoteCategory.PERSONAL));
+        }
+        StoreLocks locks = new StoreLocks();
+        database.startAutoSave(locks);
+        
+        // Each thread appends to its own note, as server clients would
+        List<Thread> threads = new ArrayList<>();
+        for (int id : ids) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String digit = Integer.toString(i % 10);
+                    try {
+                        locks.run(StoreLocks.Access.WRITE_NOTE, id, () -> store.get(id).appendContent(digit));
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        database.close();
+        
+        NoteStore reloaded = assertReloads(store);
+        for (int id : ids) {
+            assertEquals(200, reloaded.get(id).getContent().length());
+        }
+    }
+    
+    @Test
+    void closeWritesEverythingQueued() throws IOException {
+        NoteStore store = new NoteStore();
+        NoteDatabase database = open(store);
+        database.startAutoSave();
+        for (int i = 0; i < 100; i++) {
+            int id = store.add(new Note("Note " + i, "Content " + i, NoteCategory.values()[i % NoteCategory.values().length]));
+            if (i % 2 == 0) {
+                store.get(id).appendContent(", appended");
+            }
+            if (i % 5 == 0) {
+                store.remove(id);
+            }
+        }
+        database.close();
+        
+        assertEquals(80, assertReloads(store).size());
+    }
+    
+    private NoteDatabase open(NoteStore store) throws IOException {
+        NoteDatabase database = new NoteDatabase(store, directory.resolve("notes_data.txt"),
+                directory.resolve("notes_data.log"));
+        database.loadSnapshot(false);
+        database.replayJournal();
+        return database;
+    }
+    
+    /**
+     * Load the files into a new store and check it has the same notes as the given one
+     */
+    private NoteStore assertReloads(NoteStore expected) throws IOException {
+        NoteStore reloaded = new NoteStore();
+        NoteDatabase database = open(reloaded);
+        database.close();
+        assertEquals(expected.size(), reloaded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Note note = expected.noteAt(i);
+            Note copy = reloaded.get(note.getId());
+            assertNotNull(copy, "note " + note.getId());
+            assertEquals(note.getTitle(), copy.getTitle());
+            assertEquals(note.getContent(), copy.getContent());
+            assertEquals(note.getCategory(), copy.getCategory());
+        }
+        return reloaded;
+    }
+}
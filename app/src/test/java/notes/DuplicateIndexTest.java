@@ -0,0 +1,94 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import notes.NoteTakingApp.DuplicateIndex;
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Finding near-duplicate notes, built on first use or in the background
+ */
+class DuplicateIndexTest {
+    private static final String MEETING = "Weekly planning meeting with the design team: review the open tickets, "
+            + "agree on the release date for the mobile app and assign owners for the onboarding screens.";
+    private static final String RECIPE = "Banana bread: mash three ripe bananas, stir in melted butter, sugar, "
+            + "one egg and a teaspoon of vanilla, then fold in the flour and bake for an hour.";
+    
+    @Test
+    void clustersGroupNearDuplicatesOnly() {
+        NoteStore store = new NoteStore();
+        int meeting = store.add(new Note("Meeting", MEETING, NoteCategory.WORK));
+        // Differs only in case and punctuation, which signing ignores
+        int copy = store.add(new Note("Meeting (copy)", MEETING.toUpperCase().replace(",", ";"), NoteCategory.WORK));
+        int recipe = store.add(new Note("Recipe", RECIPE, NoteCategory.PERSONAL));
+        int edited = store.add(new Note("Recipe, edited", RECIPE.replace("an hour", "an hour."), NoteCategory.PERSONAL));
+        store.add(new Note("Unrelated", "Call the plumber about the leaking kitchen tap on Monday morning.",
+                NoteCategory.PERSONAL));
+        
+        List<int[]> clusters = store.duplicateIndex().clusters(DuplicateIndex.DEFAULT_SIMILARITY);
+        assertEquals(2, clusters.size());
+        assertArrayEquals(new int[] {meeting, copy}, clusters.get(0));
+        assertArrayEquals(new int[] {recipe, edited}, clusters.get(1));
+        
+        List<DuplicateIndex.Match> matches = store.duplicateIndex().similarTo(meeting, DuplicateIndex.DEFAULT_SIMILARITY);
+        assertEquals(1, matches.size());
+        assertEquals(copy, matches.get(0).id);
+        assertEquals(1.0, matches.get(0).similarity, 1e-9);
+    }
+    
+    @Test
+    void indexFollowsEditsAndDeletes() {
+        NoteStore store = new NoteStore();
+        int first = store.add(new Note("First", MEETING, NoteCategory.WORK));
+        int second = store.add(new Note("Second", RECIPE, NoteCategory.WORK));
+        assertTrue(store.duplicateIndex().clusters(DuplicateIndex.DEFAULT_SIMILARITY).isEmpty());
+        
+        store.get(second).setContent(MEETING);
+        assertEquals(1, store.duplicateIndex().clusters(DuplicateIndex.DEFAULT_SIMILARITY).size());
+        
+        // Appends are signed again when the index is next used
+        store.get(second).appendContent(" " + RECIPE + " " + RECIPE);
+        assertTrue(store.duplicateIndex().similarTo(first, DuplicateIndex.DEFAULT_SIMILARITY).isEmpty());
+        
+        store.get(second).setContent(MEETING);
+        store.remove(first);
+        assertTrue(store.duplicateIndex().clusters(DuplicateIndex.DEFAULT_SIMILARITY).isEmpty());
+    }
+    
+    @Test
+    void backgroundBuildSignsTheNotesAndKeepsLaterChanges() {
+        NoteStore store = new NoteStore();
+        int[] ids = new int[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = store.add(new Note("Note " + i, "Note number " + i + " says " + (i % 2 == 0 ? MEETING : RECIPE),
+                    NoteCategory.IDEAS));
+        }
+        store.buildDuplicateIndexInBackground();
+        // Changed while the build may still be running
+        for (int i = 0; i < 100; i++) {
+            store.get(ids[i]).setContent("Rewritten: " + i);
+        }
+        
+        DuplicateIndex index = store.duplicateIndex();
+        assertTrue(index.isReady());
+        assertTrue(index.similarTo(ids[0], DuplicateIndex.DEFAULT_SIMILARITY).isEmpty());
+        assertEquals(ids.length / 2 - 51, index.similarTo(ids[100], 0.5).size());
+    }
+    
+    @Test
+    void columnarStoreBuildsOnFirstUseInstead() {
+        NoteStore store = new NoteStore();
+        store.useColumns(false);
+        int meeting = store.add(new Note("Meeting", MEETING, NoteCategory.WORK));
+        int copy = store.add(new Note("Copy", MEETING, NoteCategory.WORK));
+        store.buildDuplicateIndexInBackground();
+        assertNull(store.duplicateIndexIfReady());
+        assertEquals(copy, store.duplicateIndex().similarTo(meeting, DuplicateIndex.DEFAULT_SIMILARITY).get(0).id);
+    }
+}
@@ -0,0 +1,114 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteHistory;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Rebuilding old versions of a note from checkpoints and the deltas after them
+ */
+class NoteHistoryTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void rebuildsEveryVersionAcrossCheckpoints() throws IOException {
+        Path path = directory.resolve("notes_history.log");
+        NoteStore store = new NoteStore();
+        NoteHistory history = new NoteHistory(path);
+        history.open(store);
+        Note note = new Note("Diary", "Day 0", NoteCategory.PERSONAL);
+        int id = store.add(note);
+        
+        // Edits and appends, well past a few checkpoint intervals
+        List<String> expected = new ArrayList<>();
+        expected.add(note.getContent());
+        for (int i = 1; i <= NoteHistory.CHECKPOINT_INTERVAL * 3; i++) {
+            if (i % 3 == 0) {
+                note.setContent("Day " + i + " rewrote: " + note.getContent());
+            } else if (i % 3 == 1) {
+                note.appendContent("\nDay " + i);
+            } else {
+                note.insertContent(0, "(" + i + ") ");
+            }
+            expected.add(note.getContent());
+        }
+        assertVersions(history, id, expected);
+        history.close();
+        
+        // Reopened, the newest version still matches the note, so an append adds just one version
+        NoteHistory reopened = new NoteHistory(path);
+        reopened.open(store);
+        assertVersions(reopened, id, expected);
+        note.appendContent("\nAfter reopening");
+        expected.add(note.getContent());
+        assertVersions(reopened, id, expected);
+        reopened.close();
+    }
+    
+    @Test
+    void smallAppendsToALargeNoteAreCheckpointedAfterMaxDeltas() throws IOException {
+        NoteStore store = new NoteStore();
+        NoteHistory history = new NoteHistory(directory.resolve("notes_history.log"));
+        history.open(store);
+        Note note = new Note("Log", "x".repeat(1 << 16), NoteCategory.WORK);
+        int id = store.add(note);
+        
+        // Far less text than the note's length, so only the cap forces checkpoints
+        List<String> expected = new ArrayList<>();
+        expected.add(note.getContent());
+        int appends = NoteHistory.MAX_DELTAS * 3;
+        for (int i = 0; i < appends; i++) {
+            note.appendContent(Integer.toString(i % 10));
+            expected.add(note.getContent());
+        }
+        assertTrue(history.size() > 3L * note.getContent().length(), "checkpoints written: " + history.size());
+        assertVersions(history, id, expected);
+        history.close();
+    }
+    
+    @Test
+    void keepsHistoryOfNotesNotLoadedWhenOnlySomeCategoriesAre() throws IOException {
+        Path path = directory.resolve("notes_history.log");
+        NoteStore store = new NoteStore();
+        NoteHistory history = new NoteHistory(path);
+        history.open(store);
+        Note note = new Note("Elsewhere", "First", NoteCategory.SCHOOL);
+        int id = store.add(note);
+        note.setContent("Second");
+        history.close();
+        
+        // As with --segments for other categories: the note is not in the store, but not deleted
+        NoteHistory partial = new NoteHistory(path);
+        partial.open(new NoteStore(), false);
+        assertEquals(2, partial.versions(id).size());
+        assertEquals("First", partial.text(id, 1));
+        partial.close();
+        
+        // With every category loaded, a missing note was deleted
+        NoteHistory full = new NoteHistory(path);
+        full.open(new NoteStore(), true);
+        assertTrue(full.versions(id).isEmpty());
+        full.close();
+    }
+    
+    private static void assertVersions(NoteHistory history, int id, List<String> expected) throws IOException {
+        List<NoteHistory.Version> versions = history.versions(id);
+        assertEquals(expected.size(), versions.size());
+        for (int number = 1; number <= expected.size(); number++) {
+            assertEquals(expected.get(number - 1), history.text(id, number), "version " + number);
+            assertEquals(expected.get(number - 1).length(), versions.get(number - 1).length);
+        }
+    }
+}
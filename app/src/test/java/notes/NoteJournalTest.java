@@ -0,0 +1,117 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteJournal;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Replaying the journal after a crash cut its last record short
+ */
+class NoteJournalTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void replayStopsAtTruncatedTailAndAppendsAfterTheLastIntactRecord() throws IOException {
+        Path path = directory.resolve("notes_data.log");
+        NoteStore store = new NoteStore();
+        NoteJournal journal = open(path, store);
+        int first = store.add(new Note("First", "Kept", NoteCategory.WORK));
+        int second = store.add(new Note("Second", "Before", NoteCategory.SCHOOL));
+        store.get(second).setContent("Edited");
+        store.get(first).appendContent(" and appended");
+        journal.close();
+        
+        // Cut into the last record, the append
+        long fullSize = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(fullSize - 3);
+        }
+        
+        NoteStore replayed = new NoteStore();
+        NoteJournal reopened = new NoteJournal(path);
+        assertEquals(3, reopened.replay(replayed));
+        assertEquals(2, replayed.size());
+        assertEquals("Kept", replayed.get(first).getContent());
+        assertEquals("Edited", replayed.get(second).getContent());
+        assertTrue(reopened.size() < fullSize - 3);
+        assertEquals(reopened.size(), Files.size(path));
+        
+        // The torn record is gone, so later records are replayed too
+        replayed.addListener(reopened);
+        replayed.get(first).appendContent(" again");
+        replayed.remove(second);
+        reopened.close();
+        
+        NoteStore again = new NoteStore();
+        assertEquals(5, new NoteJournal(path).replay(again));
+        assertEquals(1, again.size());
+        assertEquals("Kept again", again.get(first).getContent());
+    }
+    
+    @Test
+    void replayStopsAtDamagedRecord() throws IOException {
+        Path path = directory.resolve("notes_data.log");
+        NoteStore store = new NoteStore();
+        NoteJournal journal = open(path, store);
+        int id = store.add(new Note("Only", "Intact", NoteCategory.PERSONAL));
+        long intactSize = journal.size();
+        store.get(id).setContent("Damaged");
+        journal.close();
+        
+        // Flip the last byte, which the record's CRC no longer matches
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+        
+        NoteStore replayed = new NoteStore();
+        NoteJournal reopened = new NoteJournal(path);
+        assertEquals(1, reopened.replay(replayed));
+        assertEquals("Intact", replayed.get(id).getContent());
+        assertEquals(intactSize, reopened.size());
+        reopened.close();
+    }
+    
+    @Test
+    void resetKeepsOnlyRecordsAppendedAfterIt() throws IOException {
+        Path path = directory.resolve("notes_data.log");
+        NoteStore store = new NoteStore();
+        NoteJournal journal = open(path, store);
+        int id = store.add(new Note("Compacted", "In the snapshot", NoteCategory.IDEAS));
+        store.get(id).setTitle("Still compacted");
+        
+        // As after writing a snapshot: the journal is emptied and appended to from the start
+        journal.reset();
+        assertEquals(0, Files.size(path));
+        store.get(id).setContent("After the snapshot");
+        long size = journal.size();
+        journal.close();
+        assertEquals(size, Files.size(path));
+        
+        NoteStore replayed = new NoteStore();
+        replayed.add(new Note("Compacted", "In the snapshot", NoteCategory.IDEAS));
+        NoteJournal reopened = new NoteJournal(path);
+        assertEquals(1, reopened.replay(replayed));
+        assertEquals("After the snapshot", replayed.get(id).getContent());
+        reopened.close();
+    }
+    
+    private static NoteJournal open(Path path, NoteStore store) throws IOException {
+        NoteJournal journal = new NoteJournal(path);
+        journal.replay(store);
+        store.addListener(journal);
+        return journal;
+    }
+}
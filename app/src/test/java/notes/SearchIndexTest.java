@@ -0,0 +1,99 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import notes.NoteTakingApp.IdSet;
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+import notes.NoteTakingApp.SearchIndex;
+
+/**
+ * Keyword search answered from the inverted index, against a scan of every note
+ */
+class SearchIndexTest {
+    private static final String[] TITLES = {"Cat food", "Concatenate files", "Catalog", "Shopping", "Bobcat sighting",
+            "Meeting notes", "Cats and dogs", "Scatter plot", "Untitled", "Vet visit"};
+    private static final String[] CONTENTS = {"Buy cat food and litter.", "Use cat to concatenate the logs, then gzip.",
+            "Spring catalog: 40 pages, due 2024-05-01.", "Milk, eggs, bread (whole-grain), coffee.",
+            "A bobcat near the creek at dawn.", "Discussed the catalogue layout with Cat and Ann.",
+            "Feed the cats twice a day; walk the dogs.", "x-y scatter plot of latency vs load, p99.", "",
+            "The vet said the cat is fine."};
+    private static final String[] QUERIES = {"cat", "CAT", " cat ", "cat ", " cat", "cats", "at", "a", "log",
+            "catalog", "catalogue", "at the", "cat and", "the cat", "whole-grain", "2024-05", "feed the cats",
+            "dog", "zebra", "x-y", "vs load", ", ", "e"};
+    
+    @Test
+    void findsTheSameNotesAsAScan() {
+        NoteStore store = store();
+        for (String query : QUERIES) {
+            assertArrayEquals(scan(store, query), ids(store.find(query, null)), "query \"" + query + "\"");
+        }
+        
+        // And again after edits change which words are indexed
+        store.get(store.noteAt(1).getId()).setContent("Use tar instead.");
+        store.get(store.noteAt(4).getId()).appendContent(" Another cat came by.");
+        store.remove(store.noteAt(0).getId());
+        for (String query : QUERIES) {
+            assertArrayEquals(scan(store, query), ids(store.find(query, null)), "query \"" + query + "\"");
+        }
+    }
+    
+    @Test
+    void wholeWordsComeFromTheirOwnPostingsAndPartsFromEveryWordContainingThem() {
+        NoteStore store = new NoteStore();
+        int cat = store.add(new Note("Pets", "The cat sleeps", NoteCategory.PERSONAL));
+        int concatenate = store.add(new Note("Shell", "Concatenate two files", NoteCategory.WORK));
+        int bobcat = store.add(new Note("Wildlife", "A bobcat", NoteCategory.PERSONAL));
+        int catalog = store.add(new Note("Shop", "Catalog", NoteCategory.WORK));
+        SearchIndex index = store.searchIndex();
+        
+        assertArrayEquals(new int[] {cat}, ids(index.find(" cat ")));
+        assertArrayEquals(new int[] {cat, catalog}, ids(index.find(" cat")));
+        assertArrayEquals(new int[] {cat, bobcat}, ids(index.find("cat ")));
+        assertArrayEquals(new int[] {cat, concatenate, bobcat, catalog}, ids(index.find("cat")));
+        assertEquals(0, index.find(" dog ").size());
+        assertEquals(0, index.find("zebra").size());
+        
+        // A removed word is no longer found inside the query
+        store.get(concatenate).setContent("Join two files");
+        assertArrayEquals(new int[] {cat, bobcat, catalog}, ids(index.find("cat")));
+    }
+    
+    private static NoteStore store() {
+        NoteStore store = new NoteStore();
+        for (int i = 0; i < TITLES.length; i++) {
+            store.add(new Note(TITLES[i], CONTENTS[i], NoteCategory.values()[i % NoteCategory.values().length]));
+        }
+        return store;
+    }
+    
+    /**
+     * IDs of the notes whose title or content contains the query, ignoring case, the way search used to find them
+     */
+    private static int[] scan(NoteStore store, String query) {
+        Pattern pattern = Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            Note note = store.noteAt(i);
+            if (pattern.matcher(note.getTitle()).find() || pattern.matcher(note.getContent()).find()) {
+                ids.add(note.getId());
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+    
+    private static int[] ids(IdSet set) {
+        int[] ids = new int[set.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = set.get(i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,194 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+import notes.NoteTakingApp.SegmentedLog;
+
+/**
+ * Moving notes between segments, and compacting segments while they are written
+ */
+class SegmentedLogTest {
+    // Bytes of a remove record: length, CRC32, op and note ID
+    private static final int REMOVE_RECORD_BYTES = 4 + 4 + 1 + 4;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void moveToLaterSegmentSurvivesCrashBeforeOldCopyIsRemoved() throws IOException {
+        moveAndCrash(NoteCategory.PERSONAL, NoteCategory.IDEAS);
+    }
+    
+    @Test
+    void moveToEarlierSegmentSurvivesCrashBeforeOldCopyIsRemoved() throws IOException {
+        moveAndCrash(NoteCategory.IDEAS, NoteCategory.PERSONAL);
+    }
+    
+    /**
+     * Move a note, then cut off the removal from its old segment as a crash between the two writes would
+     */
+    private void moveAndCrash(NoteCategory from, NoteCategory to) throws IOException {
+        NoteStore store = new NoteStore();
+        SegmentedLog log = open(store, null);
+        Note note = Note.fromFileFormat("Plans|Written a while ago|" + from + "|2020-01-01 10:00:00|2020-01-01 10:00:00");
+        int id = store.add(note);
+        note.setCategory(to);
+        log.close();
+        
+        Path oldSegment = segmentPath(from);
+        try (FileChannel channel = FileChannel.open(oldSegment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - REMOVE_RECORD_BYTES);
+        }
+        
+        NoteStore reloaded = new NoteStore();
+        open(reloaded, null).close();
+        assertEquals(1, reloaded.size());
+        assertEquals(to, reloaded.get(id).getCategory());
+        assertEquals("Written a while ago", reloaded.get(id).getContent());
+        
+        // Loading dropped the stale copy for good, so the old segment alone has no notes
+        NoteStore oldOnly = new NoteStore();
+        open(oldOnly, EnumSet.of(from)).close();
+        assertEquals(0, oldOnly.size());
+        NoteStore newOnly = new NoteStore();
+        open(newOnly, EnumSet.of(to)).close();
+        assertEquals(to, newOnly.get(id).getCategory());
+    }
+    
+    @Test
+    void moveToLaterSegmentInTheSameSecondAsAnEditSurvivesCrash() throws IOException {
+        moveInTheSameSecondAndCrash(NoteCategory.PERSONAL, NoteCategory.IDEAS);
+    }
+    
+    @Test
+    void moveToEarlierSegmentInTheSameSecondAsAnEditSurvivesCrash() throws IOException {
+        moveInTheSameSecondAndCrash(NoteCategory.IDEAS, NoteCategory.PERSONAL);
+    }
+    
+    /**
+     * Edit and move a note with the same modification date, then crash before the old copy is removed
+     */
+    private void moveInTheSameSecondAndCrash(NoteCategory from, NoteCategory to) throws IOException {
+        NoteStore store = new NoteStore();
+        SegmentedLog log = open(store, null);
+        String modified = "|2020-01-01 10:00:00|2020-01-01 10:00:05";
+        Note note = Note.fromFileFormat("Plans|First draft|" + from + modified);
+        int id = store.add(note);
+        note.restoreFrom(Note.fromFileFormat("Plans|Edited|" + from + modified));
+        note.restoreFrom(Note.fromFileFormat("Plans|Edited and moved|" + to + modified));
+        log.close();
+        
+        try (FileChannel channel = FileChannel.open(segmentPath(from), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - REMOVE_RECORD_BYTES);
+        }
+        
+        NoteStore reloaded = new NoteStore();
+        SegmentedLog reopened = open(reloaded, null);
+        assertEquals(to, reloaded.get(id).getCategory());
+        assertEquals("Edited and moved", reloaded.get(id).getContent());
+        
+        // Compacting the new segment keeps the move's sequence number
+        reloaded.get(id).appendContent("!");
+        reopened.compactAll();
+        reopened.close();
+        NoteStore compacted = new NoteStore();
+        open(compacted, null).close();
+        assertEquals(to, compacted.get(id).getCategory());
+        assertEquals("Edited and moved!", compacted.get(id).getContent());
+    }
+    
+    @Test
+    void compactionWhileAppendingKeepsTheLatestOfEveryNote() throws Exception {
+        NoteStore store = new NoteStore();
+        SegmentedLog log = open(store, null);
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Note note = new Note("Note " + i, "First version of " + i, NoteCategory.IDEAS);
+            store.add(note);
+            notes.add(note);
+        }
+        
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger compactions = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread compactor = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    log.compactAll();
+                    compactions.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        compactor.start();
+        for (int round = 0; round < 30; round++) {
+            for (Note note : notes) {
+                if (store.get(note.getId()) == null) {
+                    continue;
+                }
+                if (round % 3 == 0) {
+                    note.setContent("Round " + round + " of " + note.getId());
+                } else {
+                    note.appendContent(", then " + round);
+                }
+            }
+            if (round == 15) {
+                for (int i = 0; i < notes.size(); i += 10) {
+                    store.remove(notes.get(i).getId());
+                }
+            }
+        }
+        done.set(true);
+        compactor.join();
+        assertNull(failure.get());
+        assertTrue(compactions.get() > 0);
+        
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < store.size(); i++) {
+            expected.put(store.noteAt(i).getId(), store.noteAt(i).getContent());
+        }
+        log.compactAll();
+        log.close();
+        
+        NoteStore reloaded = new NoteStore();
+        open(reloaded, null).close();
+        assertEquals(expected.size(), reloaded.size());
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), reloaded.get(entry.getKey()).getContent());
+        }
+        // One record per live note once compacted
+        assertTrue(Files.size(segmentPath(NoteCategory.IDEAS)) < 200 * 1024);
+    }
+    
+    private SegmentedLog open(NoteStore store, EnumSet<NoteCategory> categories) throws IOException {
+        SegmentedLog log = new SegmentedLog(directory, categories);
+        log.load(store);
+        store.addListener(log);
+        return log;
+    }
+    
+    private Path segmentPath(NoteCategory category) {
+        return directory.resolve(category.name().toLowerCase() + ".seg");
+    }
+}
@@ -0,0 +1,59 @@
+package notes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+import notes.NoteTakingApp.TitleIndex;
+
+/**
+ * Suggesting notes by title, from prefixes and words within a small edit distance
+ */
+class TitleIndexTest {
+    @Test
+    void ranksExactWordsThenPrefixesThenTypos() {
+        NoteStore store = new NoteStore();
+        int notes = store.add(new Note("Meeting notes", "", NoteCategory.WORK));
+        int archive = store.add(new Note("Meetings archive", "", NoteCategory.WORK));
+        int team = store.add(new Note("Team meet", "", NoteCategory.WORK));
+        int bread = store.add(new Note("Recipe: banana bread", "", NoteCategory.PERSONAL));
+        int split = store.add(new Note("Banana split", "", NoteCategory.PERSONAL));
+        TitleIndex index = store.titleIndex();
+        
+        // Exact first, then prefixes; equally good matches newest first
+        assertArrayEquals(new int[] {team, archive, notes}, index.suggest("meet", 10));
+        assertArrayEquals(new int[] {team, archive, notes}, index.suggest("Me", 10));
+        assertArrayEquals(new int[] {team, archive}, index.suggest("me", 2));
+        
+        // One typo is allowed from 3 letters and two from 6, also in words still being typed
+        assertArrayEquals(new int[] {split, bread}, index.suggest("bnana", 10));
+        assertArrayEquals(new int[] {archive, notes}, index.suggest("meating", 10));
+        assertArrayEquals(new int[0], index.suggest("mxxxing", 10));
+        assertArrayEquals(new int[0], index.suggest("mo", 10));
+        
+        // Every query word has to match
+        assertArrayEquals(new int[] {bread}, index.suggest("banan bread", 10));
+        assertArrayEquals(new int[0], index.suggest("banana meet", 10));
+        assertArrayEquals(new int[0], index.suggest("  ", 10));
+    }
+    
+    @Test
+    void followsRenamesAndDeletes() {
+        NoteStore store = new NoteStore();
+        int notes = store.add(new Note("Meeting notes", "", NoteCategory.WORK));
+        int team = store.add(new Note("Team meet", "", NoteCategory.WORK));
+        TitleIndex index = store.titleIndex();
+        
+        store.get(team).setTitle("Team sync");
+        assertArrayEquals(new int[] {notes}, index.suggest("meet", 10));
+        assertArrayEquals(new int[] {team}, index.suggest("sync", 10));
+        
+        store.remove(notes);
+        assertArrayEquals(new int[0], index.suggest("meet", 10));
+        store.add(new Note("Meet again", "", NoteCategory.WORK));
+        assertEquals(1, index.suggest("meet", 10).length);
+    }
+}
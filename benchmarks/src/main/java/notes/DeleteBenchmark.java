@@ -0,0 +1,40 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Deleting notes from a populated store, including index maintenance
+ * Each operation deletes a note and adds it back, so the store keeps its size
+ * for the whole run; the score therefore covers one delete plus one insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class DeleteBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int noteCount;
+    
+    private NoteStore store;
+    private int cursor = 0;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new NoteStore();
+        SyntheticNotes.populate(store, noteCount, 1);
+    }
+    
+    @Benchmark
+    public int deleteAndReinsert() {
+        cursor = (cursor + 7919) % store.size();
+        Note note = store.remove(store.noteAt(cursor).getId());
+        return store.add(note);
+    }
+}
@@ -0,0 +1,57 @@
+package notes;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Memory footprint of a store with notes as objects versus notes in columns
+ * Not a JMH benchmark: each layout is filled with the same synthetic notes and the
+ * heap and direct memory still in use after a full GC are reported per note.
+ * The search index is deferred so only the notes themselves are measured.
+ * Run with: java -cp benchmarks/target/benchmarks.jar notes.FootprintComparison [notes]
+ */
+public class FootprintComparison {
+    private enum Layout { OBJECTS, COLUMNAR, OFF_HEAP }
+
+    public static void main(String[] args) {
+        int noteCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf("%-10s %14s %14s %12s%n", "layout", "heap (KB)", "direct (KB)", "bytes/note");
+        for (Layout layout : Layout.values()) {
+            long heapBefore = usedHeap();
+            long directBefore = usedDirect();
+
+            NoteStore store = new NoteStore();
+            store.searchIndex().deferBuild();
+            if (layout != Layout.OBJECTS) {
+                store.useColumns(layout == Layout.OFF_HEAP);
+            }
+            SyntheticNotes.populate(store, noteCount, 1);
+
+            long heap = usedHeap() - heapBefore;
+            long direct = usedDirect() - directBefore;
+            System.out.printf("%-10s %14d %14d %12d%n", layout.name().toLowerCase(),
+                    heap / 1024, direct / 1024, (heap + direct) / noteCount);
+            store.clear();
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
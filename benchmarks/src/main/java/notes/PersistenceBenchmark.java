@@ -0,0 +1,87 @@
+package notes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import notes.NoteTakingApp.NoteDatabase;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Loading and saving a store through the snapshot file and journal
+ * Files are written to a temporary directory that is removed after the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PersistenceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int noteCount;
+    
+    private Path directory;
+    private NoteDatabase database;
+    private final Random random = new Random(7);
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("notes-bench");
+        NoteStore store = new NoteStore();
+        SyntheticNotes.populate(store, noteCount, 1);
+        database = new NoteDatabase(store, directory.resolve("notes_data.txt"), directory.resolve("notes_data.log"));
+        database.replayJournal();
+        database.compact();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    @Benchmark
+    public int load() throws IOException {
+        return loadInto(new NoteStore(), false);
+    }
+    
+    @Benchmark
+    public int loadLazy() throws IOException {
+        return loadInto(new NoteStore(), true);
+    }
+    
+    private int loadInto(NoteStore store, boolean lazy) throws IOException {
+        // A separate journal file, so loading never touches the one being written to
+        NoteDatabase loaded = new NoteDatabase(store, directory.resolve("notes_data.txt"),
+                directory.resolve("load.log"));
+        loaded.loadSnapshot(lazy);
+        return store.size();
+    }
+    
+    /**
+     * Full snapshot rewrite, as done by journal compaction
+     */
+    @Benchmark
+    public void saveSnapshot() throws IOException {
+        database.compact();
+    }
+    
+    /**
+     * Edit one note and save, which only appends to and syncs the journal
+     */
+    @Benchmark
+    public void editAndSave() throws IOException {
+        NoteStore store = database.store();
+        store.noteAt(random.nextInt(store.size())).setTitle(SyntheticNotes.text(random, 4));
+        database.save();
+    }
+}
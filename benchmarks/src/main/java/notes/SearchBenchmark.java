@@ -0,0 +1,59 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import notes.NoteTakingApp.IdSet;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Keyword search, regex search and category filters on a populated store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SearchBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int noteCount;
+    
+    private NoteStore store;
+    private String regex;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new NoteStore();
+        SyntheticNotes.populate(store, noteCount, 1);
+        regex = "(" + SyntheticNotes.WORDS[10] + "|" + SyntheticNotes.WORDS[11] + ")\\s+" + SyntheticNotes.WORDS[12];
+    }
+    
+    @Benchmark
+    public int literalSearch() {
+        return store.find(SyntheticNotes.MEDIUM_WORD, null).size();
+    }
+    
+    @Benchmark
+    public int regexSearch() {
+        return store.find(regex, null).size();
+    }
+    
+    @Benchmark
+    public int filterByCategory() {
+        // Resolve every listed note, as the menu does when printing them
+        IdSet ids = store.categoryIndex().idsIn(NoteCategory.WORK);
+        int titleChars = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            titleChars += store.get(ids.get(i)).getTitle().length();
+        }
+        return titleChars;
+    }
+    
+    @Benchmark
+    public int filterByCategoryAndKeyword() {
+        return store.find(SyntheticNotes.MEDIUM_WORD, store.categoryIndex().idsIn(NoteCategory.WORK)).size();
+    }
+}
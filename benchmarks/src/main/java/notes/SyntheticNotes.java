@@ -0,0 +1,63 @@
+package notes;
+
+import java.util.Random;
+
+import notes.NoteTakingApp.Note;
+import notes.NoteTakingApp.NoteCategory;
+import notes.NoteTakingApp.NoteStore;
+
+/**
+ * Deterministic generator of realistic-looking notes for benchmarks
+ * Words are drawn from a fixed vocabulary with a skewed distribution, so a few
+ * words are very common and most are rare, like in real text.
+ */
+final class SyntheticNotes {
+    static final String[] WORDS = vocabulary(8192, 42);
+    
+    // A word that appears in roughly one note in a hundred
+    static final String MEDIUM_WORD = WORDS[2000];
+    
+    private static final NoteCategory[] CATEGORIES = NoteCategory.values();
+    
+    private SyntheticNotes() {
+    }
+    
+    /**
+     * Add count notes of 40 to 160 words (about 250 to 1000 characters) to the store
+     */
+    static void populate(NoteStore store, int count, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            store.add(newNote(random));
+        }
+    }
+    
+    static Note newNote(Random random) {
+        return new Note(text(random, 3 + random.nextInt(5)), text(random, 40 + random.nextInt(121)),
+                CATEGORIES[random.nextInt(CATEGORIES.length)]);
+    }
+    
+    static String text(Random random, int words) {
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(i % 12 == 0 ? "\n" : " ");
+            }
+            sb.append(WORDS[(int) (WORDS.length * Math.pow(random.nextDouble(), 3))]);
+        }
+        return sb.toString();
+    }
+    
+    private static String[] vocabulary(int size, long seed) {
+        Random random = new Random(seed);
+        String[] words = new String[size];
+        for (int i = 0; i < size; i++) {
+            char[] chars = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(chars);
+        }
+        return words;
+    }
+}